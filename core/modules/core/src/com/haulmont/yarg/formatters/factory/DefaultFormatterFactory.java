@@ -23,16 +23,20 @@ import com.haulmont.yarg.formatters.impl.*;
 import com.haulmont.yarg.formatters.impl.doc.connector.OfficeIntegrationAPI;
 import com.haulmont.yarg.formatters.impl.docx.HtmlImportProcessor;
 import com.haulmont.yarg.formatters.impl.docx.HtmlImportProcessorImpl;
+import com.haulmont.yarg.formatters.impl.docx.PdfExportContext;
 import com.haulmont.yarg.formatters.impl.xls.DocumentConverter;
 import com.haulmont.yarg.formatters.impl.xls.DocumentConverterImpl;
+import com.haulmont.yarg.formatters.impl.xlsx.ParsedTemplate;
 import com.haulmont.yarg.structure.BandData;
 import com.haulmont.yarg.structure.ReportTemplate;
 import com.haulmont.yarg.util.groovy.Scripting;
 
 import java.io.OutputStream;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
 
 public class DefaultFormatterFactory implements ReportFormatterFactory {
     protected OfficeIntegrationAPI officeIntegration;
@@ -42,6 +46,18 @@ public class DefaultFormatterFactory implements ReportFormatterFactory {
     protected HtmlToPdfConverterFactory htmlToPdfConverterFactory;
     protected String fontsDirectory;
     protected Scripting scripting;
+    protected TemplateCache<ParsedTemplate> xlsxTemplateCache;
+    protected TemplateCache<XLSFormatter.ParsedTemplate> xlsTemplateCache;
+    protected boolean xlsxStreamingEnabled;
+    protected boolean xlsxSharedStringsEnabled;
+    protected ExecutorService xlsxSheetExecutor;
+    protected boolean xlsxCsvDirectEnabled;
+    protected Charset xlsxCsvCharset = Charset.defaultCharset();
+    protected char xlsxCsvSeparator = ';';
+    protected boolean docxStreamingEnabled;
+    protected PdfExportContext docxPdfExportContext;
+    protected ExecutorService docxHtmlProcessingExecutor;
+    protected TemplateCache<DocxFormatter.ParsedTemplate> docxTemplateCache;
 
     protected Map<String, FormatterCreator> formattersMap = new HashMap<>();
 
@@ -55,6 +71,7 @@ public class DefaultFormatterFactory implements ReportFormatterFactory {
             xlsFormatter.setDocumentConverter(documentConverter);
             xlsFormatter.setDefaultFormatProvider(defaultFormatProvider);
             xlsFormatter.setScripting(scripting);
+            xlsFormatter.setTemplateCache(xlsTemplateCache);
             return xlsFormatter;
         });
 
@@ -84,6 +101,10 @@ public class DefaultFormatterFactory implements ReportFormatterFactory {
             docxFormatter.setDocumentConverter(documentConverter);
             docxFormatter.setHtmlImportProcessor(htmlImportProcessor);
             docxFormatter.setScripting(scripting);
+            docxFormatter.setStreamingEnabled(docxStreamingEnabled);
+            docxFormatter.setPdfExportContext(docxPdfExportContext);
+            docxFormatter.setHtmlProcessingExecutor(docxHtmlProcessingExecutor);
+            docxFormatter.setTemplateCache(docxTemplateCache);
             return docxFormatter;
         });
         FormatterCreator xlsxCreator = factoryInput -> {
@@ -91,6 +112,13 @@ public class DefaultFormatterFactory implements ReportFormatterFactory {
             xlsxFormatter.setDefaultFormatProvider(defaultFormatProvider);
             xlsxFormatter.setDocumentConverter(documentConverter);
             xlsxFormatter.setScripting(scripting);
+            xlsxFormatter.setTemplateCache(xlsxTemplateCache);
+            xlsxFormatter.setStreamingEnabled(xlsxStreamingEnabled);
+            xlsxFormatter.setSharedStringsEnabled(xlsxSharedStringsEnabled);
+            xlsxFormatter.setSheetExecutor(xlsxSheetExecutor);
+            xlsxFormatter.setCsvDirectEnabled(xlsxCsvDirectEnabled);
+            xlsxFormatter.setCsvCharset(xlsxCsvCharset);
+            xlsxFormatter.setCsvSeparator(xlsxCsvSeparator);
             return xlsxFormatter;
         };
         formattersMap.put("xlsx", xlsxCreator);
@@ -147,6 +175,139 @@ public class DefaultFormatterFactory implements ReportFormatterFactory {
         this.scripting = scripting;
     }
 
+    public TemplateCache<ParsedTemplate> getXlsxTemplateCache() {
+        return xlsxTemplateCache;
+    }
+
+    /**
+     * Enables reuse of parsed xlsx templates between report runs
+     */
+    public void setXlsxTemplateCache(TemplateCache<ParsedTemplate> xlsxTemplateCache) {
+        this.xlsxTemplateCache = xlsxTemplateCache;
+    }
+
+    public TemplateCache<XLSFormatter.ParsedTemplate> getXlsTemplateCache() {
+        return xlsTemplateCache;
+    }
+
+    /**
+     * Enables reuse of analysed xls templates between report runs
+     */
+    public void setXlsTemplateCache(TemplateCache<XLSFormatter.ParsedTemplate> xlsTemplateCache) {
+        this.xlsTemplateCache = xlsTemplateCache;
+    }
+
+    public boolean isXlsxStreamingEnabled() {
+        return xlsxStreamingEnabled;
+    }
+
+    /**
+     * Enables writing of completed rows of large xlsx reports to temporary files instead of keeping them in memory.
+     * Rows are written at the boundaries of first level band instances, see {@link XlsxFormatter#setStreamingEnabled(boolean)}
+     */
+    public void setXlsxStreamingEnabled(boolean xlsxStreamingEnabled) {
+        this.xlsxStreamingEnabled = xlsxStreamingEnabled;
+    }
+
+    public boolean isXlsxSharedStringsEnabled() {
+        return xlsxSharedStringsEnabled;
+    }
+
+    /**
+     * Enables writing of xlsx text values to the shared strings table, so repeated values are stored only once
+     */
+    public void setXlsxSharedStringsEnabled(boolean xlsxSharedStringsEnabled) {
+        this.xlsxSharedStringsEnabled = xlsxSharedStringsEnabled;
+    }
+
+    public ExecutorService getXlsxSheetExecutor() {
+        return xlsxSheetExecutor;
+    }
+
+    /**
+     * Enables rendering of xlsx bands placed on different sheets in threads of the executor
+     */
+    public void setXlsxSheetExecutor(ExecutorService xlsxSheetExecutor) {
+        this.xlsxSheetExecutor = xlsxSheetExecutor;
+    }
+
+    public boolean isXlsxCsvDirectEnabled() {
+        return xlsxCsvDirectEnabled;
+    }
+
+    /**
+     * Enables writing of csv output of xlsx templates directly from bands, without building the result workbook
+     */
+    public void setXlsxCsvDirectEnabled(boolean xlsxCsvDirectEnabled) {
+        this.xlsxCsvDirectEnabled = xlsxCsvDirectEnabled;
+    }
+
+    public Charset getXlsxCsvCharset() {
+        return xlsxCsvCharset;
+    }
+
+    /**
+     * Sets charset of csv output of xlsx templates, the platform default charset is used by default
+     */
+    public void setXlsxCsvCharset(Charset xlsxCsvCharset) {
+        this.xlsxCsvCharset = xlsxCsvCharset;
+    }
+
+    public char getXlsxCsvSeparator() {
+        return xlsxCsvSeparator;
+    }
+
+    /**
+     * Sets separator of csv output of xlsx templates, ';' is used by default
+     */
+    public void setXlsxCsvSeparator(char xlsxCsvSeparator) {
+        this.xlsxCsvSeparator = xlsxCsvSeparator;
+    }
+
+    public boolean isDocxStreamingEnabled() {
+        return docxStreamingEnabled;
+    }
+
+    /**
+     * Enables writing of filled rows of large docx tables to temporary files instead of keeping them in memory
+     */
+    public void setDocxStreamingEnabled(boolean docxStreamingEnabled) {
+        this.docxStreamingEnabled = docxStreamingEnabled;
+    }
+
+    public PdfExportContext getDocxPdfExportContext() {
+        return docxPdfExportContext;
+    }
+
+    /**
+     * Enables reuse of FOP set up between report runs for docx to PDF conversion without office integration
+     */
+    public void setDocxPdfExportContext(PdfExportContext docxPdfExportContext) {
+        this.docxPdfExportContext = docxPdfExportContext;
+    }
+
+    public ExecutorService getDocxHtmlProcessingExecutor() {
+        return docxHtmlProcessingExecutor;
+    }
+
+    /**
+     * Enables processing of html chunks of docx reports in threads of the executor, the html import processor should be thread-safe
+     */
+    public void setDocxHtmlProcessingExecutor(ExecutorService docxHtmlProcessingExecutor) {
+        this.docxHtmlProcessingExecutor = docxHtmlProcessingExecutor;
+    }
+
+    public TemplateCache<DocxFormatter.ParsedTemplate> getDocxTemplateCache() {
+        return docxTemplateCache;
+    }
+
+    /**
+     * Enables reuse of precompiled docx templates between report runs
+     */
+    public void setDocxTemplateCache(TemplateCache<DocxFormatter.ParsedTemplate> docxTemplateCache) {
+        this.docxTemplateCache = docxTemplateCache;
+    }
+
     public ReportFormatter createFormatter(FormatterFactoryInput factoryInput) {
         String templateExtension = factoryInput.templateExtension;
         BandData rootBand = factoryInput.rootBand;
@@ -56,6 +56,7 @@ public abstract class AbstractFormatter implements ReportFormatter {
     public static final Pattern UNIVERSAL_ALIAS_PATTERN = Pattern.compile(UNIVERSAL_ALIAS_REGEXP, Pattern.CASE_INSENSITIVE);
     public static final Pattern ALIAS_WITH_BAND_NAME_PATTERN = Pattern.compile(ALIAS_WITH_BAND_NAME_REGEXP);
     public static final Pattern BAND_NAME_DECLARATION_PATTERN = Pattern.compile(BAND_NAME_DECLARATION_REGEXP);
+    public static final Pattern ANY_ALIAS_PATTERN = Pattern.compile("\\$\\{[^\\$\\{\\}]*\\}");
     public static final String VALUE = "value";
 
 
@@ -72,6 +73,24 @@ public abstract class AbstractFormatter implements ReportFormatter {
      */
     protected List<ContentInliner> contentInliners = new ArrayList<>();
 
+    /**
+     * Compiled formatters for the format strings used during the render, keyed by format string
+     */
+    protected Map<String, DecimalFormat> decimalFormats = new HashMap<>();
+    protected Map<String, SimpleDateFormat> dateFormats = new HashMap<>();
+    protected Map<String, DateTimeFormatter> dateTimeFormatters = new HashMap<>();
+    protected Map<String, ValueFormat> valueFormats = new HashMap<>();
+
+    /**
+     * Parsed alias templates, keyed by template text
+     */
+    protected Map<String, AliasTemplate> aliasTemplates = new HashMap<>();
+
+    /**
+     * Resolved field formats, keyed by band name and then by field name
+     */
+    protected Map<String, Map<String, FieldFormat>> fieldFormats = new HashMap<>();
+
     public void setScripting(Scripting scripting) {
         this.scripting = scripting;
     }
@@ -124,32 +143,31 @@ public abstract class AbstractFormatter implements ReportFormatter {
 
     protected String formatValue(Object value, String parameterName, String fullParameterName, String stringFunction) {
         checkThreadInterrupted();
-        String valueString;
         String formatString = getFormatString(parameterName, fullParameterName);
+        boolean groovyScript = Boolean.TRUE.equals(isGroovyScript(parameterName, fullParameterName));
+        return applyFormat(value, formatString, groovyScript, stringFunction);
+    }
+
+    protected String formatValue(Object value, FieldFormat fieldFormat, String stringFunction) {
+        checkThreadInterrupted();
+        return applyFormat(value, fieldFormat.formatString, fieldFormat.groovyScript, stringFunction);
+    }
+
+    protected String applyFormat(Object value, String formatString, boolean groovyScript, String stringFunction) {
+        String valueString;
         if (formatString != null) {
-            if (Boolean.TRUE.equals(isGroovyScript(parameterName, fullParameterName))) {
+            if (groovyScript) {
                 valueString = scripting.evaluateGroovy(formatString, Collections.singletonMap(VALUE, value));
             } else if (formatString.startsWith("class:")) {
-                String className = formatString.replaceFirst("class:", "");
-                ValueFormat valueFormat;
-                try {
-                    Class<?> valueFormatterClass = ClassUtils.getClass(className);
-                    valueFormat = (ValueFormat) ConstructorUtils.invokeConstructor(valueFormatterClass);
-                } catch (ReflectiveOperationException e) {
-                    throw new ReportingException("An error occurred while applying custom format", e);
-                }
-                valueString = valueFormat.format(value);
+                valueString = getValueFormat(formatString).format(value);
             } else if (value == null) {
                 valueString = "";
             } else if (value instanceof Number) {
-                DecimalFormat decimalFormat = new DecimalFormat(formatString);
-                valueString = decimalFormat.format(value);
+                valueString = getDecimalFormat(formatString).format(value);
             } else if (value instanceof Date) {
-                SimpleDateFormat dateFormat = new SimpleDateFormat(formatString);
-                valueString = dateFormat.format(value);
+                valueString = getDateFormat(formatString).format(value);
             } else if (value instanceof TemporalAccessor) {
-                DateTimeFormatter dateTimeFormatter = DateTimeFormatter.ofPattern(formatString);
-                valueString = dateTimeFormatter.format((TemporalAccessor) value);
+                valueString = getDateTimeFormatter(formatString).format((TemporalAccessor) value);
             } else if (value instanceof String && !formatString.startsWith("${")) {//do not use inliner alias as format string
                 valueString = String.format(formatString, value);
             } else {
@@ -166,6 +184,33 @@ public abstract class AbstractFormatter implements ReportFormatter {
         return valueString != null ? valueString : "";
     }
 
+    protected DecimalFormat getDecimalFormat(String formatString) {
+        return decimalFormats.computeIfAbsent(formatString, DecimalFormat::new);
+    }
+
+    protected SimpleDateFormat getDateFormat(String formatString) {
+        return dateFormats.computeIfAbsent(formatString, SimpleDateFormat::new);
+    }
+
+    protected DateTimeFormatter getDateTimeFormatter(String formatString) {
+        return dateTimeFormatters.computeIfAbsent(formatString, DateTimeFormatter::ofPattern);
+    }
+
+    protected ValueFormat getValueFormat(String formatString) {
+        ValueFormat valueFormat = valueFormats.get(formatString);
+        if (valueFormat == null) {
+            String className = formatString.replaceFirst("class:", "");
+            try {
+                Class<?> valueFormatterClass = ClassUtils.getClass(className);
+                valueFormat = (ValueFormat) ConstructorUtils.invokeConstructor(valueFormatterClass);
+            } catch (ReflectiveOperationException e) {
+                throw new ReportingException("An error occurred while applying custom format", e);
+            }
+            valueFormats.put(formatString, valueFormat);
+        }
+        return valueFormat;
+    }
+
     protected String getFormatString(String parameterName, String fullParameterName) {
         Map<String, ReportFieldFormat> formats = rootBand.getReportFieldFormats();
         String formatString = null;
@@ -179,6 +224,23 @@ public abstract class AbstractFormatter implements ReportFormatter {
         return formatString;
     }
 
+    /**
+     * Returns format of the band field resolved once per render: format string, groovy flag and matched content inliner
+     */
+    protected FieldFormat getFieldFormat(String bandName, String parameterName) {
+        Map<String, FieldFormat> bandFormats = fieldFormats.computeIfAbsent(bandName, name -> new HashMap<>());
+        FieldFormat fieldFormat = bandFormats.get(parameterName);
+        if (fieldFormat == null) {
+            String fullParameterName = bandName + "." + parameterName;
+            String formatString = getFormatString(parameterName, fullParameterName);
+            fieldFormat = new FieldFormat(formatString,
+                    Boolean.TRUE.equals(isGroovyScript(parameterName, fullParameterName)),
+                    getContentInlinerForFormat(formatString));
+            bandFormats.put(parameterName, fieldFormat);
+        }
+        return fieldFormat;
+    }
+
     protected Boolean isGroovyScript(String parameterName, String fullParameterName) {
         Map<String, ReportFieldFormat> formats = rootBand.getReportFieldFormats();
         Boolean groovyFormat = false;
@@ -213,18 +275,15 @@ public abstract class AbstractFormatter implements ReportFormatter {
     }
 
     protected String insertBandDataToString(BandData bandData, String resultStr) {
-        List<String> parametersToInsert = new ArrayList<>();
-        Matcher matcher = UNIVERSAL_ALIAS_PATTERN.matcher(resultStr);
-        while (matcher.find()) {
-            parametersToInsert.add(unwrapParameterName(matcher.group()));
-        }
-        for (String parameterName : parametersToInsert) {
+        return getAliasTemplate(resultStr).render(alias -> {
+            String parameterName = alias.getParameterName();
             Object value = bandData.getData().get(parameterName);
-            String fullParameterName = bandData.getName() + "." + parameterName;
-            String valueStr = formatValue(value, parameterName, fullParameterName);
-            resultStr = inlineParameterValue(resultStr, parameterName, valueStr);
-        }
-        return resultStr;
+            return formatValue(value, getFieldFormat(bandData.getName(), parameterName), null);
+        });
+    }
+
+    protected AliasTemplate getAliasTemplate(String template) {
+        return aliasTemplates.computeIfAbsent(template, AliasTemplate::parse);
     }
 
     protected String inlineParameterValue(String template, String parameterName, String value) {
@@ -234,13 +293,12 @@ public abstract class AbstractFormatter implements ReportFormatter {
     }
 
     protected boolean containsJustOneAlias(String value) {
-        return !StringUtils.isBlank(value) && value.matches("\\$\\{[^\\$\\{\\}]*\\}");
+        return !StringUtils.isBlank(value) && ANY_ALIAS_PATTERN.matcher(value).matches();
     }
 
     protected List<String> getAllAliases(String value) {
-        Pattern aliasPattern = Pattern.compile("\\$\\{[^\\$\\{\\}]*\\}");
         List<String> aliases = new ArrayList<>();
-        Matcher m = aliasPattern.matcher(value);
+        Matcher m = ANY_ALIAS_PATTERN.matcher(value);
         while (m.find()) {
             aliases.add(m.group());
         }
@@ -304,6 +362,18 @@ public abstract class AbstractFormatter implements ReportFormatter {
         }
     }
 
+    protected static class FieldFormat {
+        final String formatString;
+        final boolean groovyScript;
+        final InlinerAndMatcher inlinerAndMatcher;
+
+        public FieldFormat(String formatString, boolean groovyScript, InlinerAndMatcher inlinerAndMatcher) {
+            this.formatString = formatString;
+            this.groovyScript = groovyScript;
+            this.inlinerAndMatcher = inlinerAndMatcher;
+        }
+    }
+
     protected InlinerAndMatcher getContentInlinerForFormat(String formatString) {
         if (formatString != null) {
             for (ContentInliner contentInliner : contentInliners) {
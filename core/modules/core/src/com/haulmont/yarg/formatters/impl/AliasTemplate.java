@@ -0,0 +1,124 @@
+/*
+ * Copyright 2013 Haulmont
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.haulmont.yarg.formatters.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+
+/**
+ * Template text parsed into a list of literal and alias segments.
+ * Parsed once per template text and rendered with a single pass for every band.
+ */
+public class AliasTemplate {
+    protected final String text;
+    protected final List<Segment> segments;
+    protected final boolean hasAliases;
+
+    protected AliasTemplate(String text, List<Segment> segments, boolean hasAliases) {
+        this.text = text;
+        this.segments = segments;
+        this.hasAliases = hasAliases;
+    }
+
+    public static AliasTemplate parse(String text) {
+        List<Segment> segments = new ArrayList<>();
+        boolean hasAliases = false;
+        Matcher matcher = AbstractFormatter.UNIVERSAL_ALIAS_PATTERN.matcher(text);
+        int position = 0;
+        while (matcher.find()) {
+            if (matcher.start() > position) {
+                segments.add(Segment.literal(text.substring(position, matcher.start())));
+            }
+            segments.add(Segment.alias(matcher.group(), matcher.group(1), matcher.group(2)));
+            hasAliases = true;
+            position = matcher.end();
+        }
+        if (position < text.length()) {
+            segments.add(Segment.literal(text.substring(position)));
+        }
+        return new AliasTemplate(text, Collections.unmodifiableList(segments), hasAliases);
+    }
+
+    /**
+     * Renders template replacing each alias with the value returned by the renderer
+     */
+    public String render(Function<Segment, String> aliasRenderer) {
+        if (!hasAliases) {
+            return text;
+        }
+
+        StringBuilder result = new StringBuilder(text.length());
+        for (Segment segment : segments) {
+            result.append(segment.isAlias() ? aliasRenderer.apply(segment) : segment.getText());
+        }
+        return result.toString();
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public List<Segment> getSegments() {
+        return segments;
+    }
+
+    public boolean hasAliases() {
+        return hasAliases;
+    }
+
+    public static class Segment {
+        protected final String text;
+        protected final String parameterName;
+        protected final String stringFunction;
+
+        protected Segment(String text, String parameterName, String stringFunction) {
+            this.text = text;
+            this.parameterName = parameterName;
+            this.stringFunction = stringFunction;
+        }
+
+        public static Segment literal(String text) {
+            return new Segment(text, null, null);
+        }
+
+        public static Segment alias(String text, String parameterName, String stringFunction) {
+            return new Segment(text, parameterName, stringFunction);
+        }
+
+        public boolean isAlias() {
+            return parameterName != null;
+        }
+
+        /**
+         * @return segment source text, for alias it is the whole alias declaration like ${Band.field}
+         */
+        public String getText() {
+            return text;
+        }
+
+        public String getParameterName() {
+            return parameterName;
+        }
+
+        public String getStringFunction() {
+            return stringFunction;
+        }
+    }
+}
@@ -16,6 +16,8 @@
 package com.haulmont.yarg.formatters.impl;
 
 
+import com.haulmont.yarg.exception.ReportingException;
+import com.haulmont.yarg.exception.ReportingInterruptedException;
 import com.haulmont.yarg.formatters.factory.FormatterFactoryInput;
 import com.haulmont.yarg.formatters.impl.docx.*;
 import com.haulmont.yarg.formatters.impl.inline.ContentInliner;
@@ -23,9 +25,11 @@ import com.haulmont.yarg.formatters.impl.xls.DocumentConverter;
 import com.haulmont.yarg.structure.BandData;
 import com.haulmont.yarg.structure.ReportFieldFormat;
 import com.haulmont.yarg.structure.ReportOutputType;
+import com.haulmont.yarg.util.docx4j.XmlCopyUtils;
 import org.apache.commons.io.IOUtils;
 import org.docx4j.Docx4J;
 import org.docx4j.TraversalUtil;
+import org.docx4j.XmlUtils;
 import org.docx4j.convert.in.xhtml.XHTMLImporter;
 import org.docx4j.convert.in.xhtml.XHTMLImporterImpl;
 import org.docx4j.convert.out.HTMLSettings;
@@ -33,9 +37,12 @@ import org.docx4j.openpackaging.exceptions.Docx4JException;
 import org.docx4j.openpackaging.io.SaveToZipFile;
 import org.docx4j.openpackaging.packages.WordprocessingMLPackage;
 import org.docx4j.openpackaging.parts.JaxbXmlPartAltChunkHost;
+import org.docx4j.openpackaging.parts.Part;
+import org.docx4j.openpackaging.parts.PartName;
 import org.docx4j.openpackaging.parts.WordprocessingML.AltChunkType;
 import org.docx4j.openpackaging.parts.WordprocessingML.AlternativeFormatInputPart;
 import org.docx4j.openpackaging.parts.WordprocessingML.MainDocumentPart;
+import org.docx4j.openpackaging.parts.WordprocessingML.NumberingDefinitionsPart;
 import org.docx4j.toc.TocException;
 import org.docx4j.toc.TocFinder;
 import org.docx4j.toc.TocGenerator;
@@ -44,25 +51,51 @@ import org.docx4j.wml.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.xml.bind.JAXBException;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
-import java.util.List;
-import java.util.Map;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 /**
  * * Document formatter for '.docx' file types
  */
 public class DocxFormatter extends AbstractFormatter {
     protected static final Logger log = LoggerFactory.getLogger(DocxFormatter.class);
+    protected static final Pattern DOCUMENT_START_TAG_PATTERN = Pattern.compile("<w:document\\b[^>]*>");
+    protected static final Pattern NAMESPACE_DECLARATION_PATTERN = Pattern.compile("\\sxmlns:([\\w.-]+)=\"([^\"]*)\"");
 
     protected WordprocessingMLPackage wordprocessingMLPackage;
     protected DocumentWrapper documentWrapper;
     protected DocumentConverter documentConverter;
     protected HtmlImportProcessor htmlImportProcessor;
+    protected boolean streamingEnabled;
+    protected PdfExportContext pdfExportContext;
+    protected ExecutorService htmlProcessingExecutor;
+    protected ParsedTemplate parsedTemplate;
+    protected TemplateCache<ParsedTemplate> templateCache;
+
+    /**
+     * Rows of the streamed tables, written to temporary files while the tables are filled
+     */
+    protected List<StreamingTableRows> streamingTables = new ArrayList<>();
+
+    /**
+     * Aliases of the document resolved to band paths and parameter names, and bands found by path.
+     * Each alias is resolved once per render, however many texts or table rows contain it
+     */
+    protected Map<String, BandPathAndParameterName> bandPathsAndParameterNames = new HashMap<>();
+    protected Map<String, Optional<BandData>> bandsByPath = new HashMap<>();
 
     public DocxFormatter(FormatterFactoryInput formatterFactoryInput) {
         super(formatterFactoryInput);
@@ -78,22 +111,65 @@ public class DocxFormatter extends AbstractFormatter {
         this.htmlImportProcessor = htmlImportProcessor;
     }
 
+    /**
+     * Enables streaming of band tables for docx output: rows of the tables are written to temporary files
+     * as soon as they are filled and are copied into the document xml on save, so only one row is kept in memory.
+     * Tables of the documents with structured document tags (e.g. table of contents) and tables with
+     * inlined content are rendered in memory.
+     */
+    public void setStreamingEnabled(boolean streamingEnabled) {
+        this.streamingEnabled = streamingEnabled;
+    }
+
+    /**
+     * Sets the context used for conversion to PDF when there is no document converter,
+     * so FOP set up is shared between report runs
+     */
+    public void setPdfExportContext(PdfExportContext pdfExportContext) {
+        this.pdfExportContext = pdfExportContext;
+    }
+
+    /**
+     * Enables processing of html chunks with the {@link HtmlImportProcessor} in threads of the executor, so the processor
+     * should be thread-safe. Processed html is converted to document content in the calling thread.
+     * The executor might be shared between report runs, it is not shut down by the formatter.
+     */
+    public void setHtmlProcessingExecutor(ExecutorService htmlProcessingExecutor) {
+        this.htmlProcessingExecutor = htmlProcessingExecutor;
+    }
+
+    /**
+     * Sets cache of precompiled templates shared between report runs: aliases split between several runs are merged
+     * and header and footer parts containing aliases are found once for each template.
+     * Templates are analysed for each run if cache is not set.
+     */
+    public void setTemplateCache(TemplateCache<ParsedTemplate> templateCache) {
+        this.templateCache = templateCache;
+    }
+
     @Override
     public void renderDocument() {
         loadDocument();
 
-        fillTables();
+        try {
+            fillTables();
 
-        replaceAllAliasesInDocument();
+            replaceAllAliasesInDocument();
 
-        handleUrls();
+            handleUrls();
 
-        updateTableOfContents();
+            updateTableOfContents();
 
-        saveAndClose();
+            saveAndClose();
+        } finally {
+            streamingTables.forEach(StreamingTableRows::close);
+        }
     }
 
     protected void updateTableOfContents() {
+        if (!documentWrapper.containsStructuredDocumentTags()) {
+            return;
+        }
         try {
             MainDocumentPart documentPart = wordprocessingMLPackage.getMainDocumentPart();
             Document wmlDocumentEl;
@@ -126,17 +202,37 @@ public class DocxFormatter extends AbstractFormatter {
         if (reportTemplate == null)
             throw new NullPointerException("Template file can't be null.");
         try {
-            wordprocessingMLPackage = WordprocessingMLPackage.load(reportTemplate.getDocumentContent());
-            documentWrapper = new DocumentWrapper(new DocxFormatterDelegate(this), wordprocessingMLPackage);
-        } catch (Docx4JException e) {
+            if (templateCache != null) {
+                byte[] templateContent = IOUtils.toByteArray(reportTemplate.getDocumentContent());
+                parsedTemplate = templateCache.get(reportTemplate, templateContent, this::parseTemplate);
+                wordprocessingMLPackage = WordprocessingMLPackage.load(new ByteArrayInputStream(parsedTemplate.getDocumentContent()));
+            } else {
+                wordprocessingMLPackage = WordprocessingMLPackage.load(reportTemplate.getDocumentContent());
+            }
+        } catch (ReportingException e) {
+            throw e;
+        } catch (Exception e) {
             throw wrapWithReportingException(String.format("An error occurred while reading docx template. File name [%s]", reportTemplate.getDocumentName()), e);
         }
+        documentWrapper = new DocumentWrapper(new DocxFormatterDelegate(this), wordprocessingMLPackage, parsedTemplate);
+    }
+
+    protected ParsedTemplate parseTemplate(byte[] templateContent) throws Docx4JException {
+        WordprocessingMLPackage template = WordprocessingMLPackage.load(new ByteArrayInputStream(templateContent));
+        Set<PartName> headerAndFooterPartNames = DocumentWrapper.mergeAliases(new DocxFormatterDelegate(this), template);
+        ByteArrayOutputStream documentContent = new ByteArrayOutputStream();
+        writeToOutputStream(template, documentContent);
+        return new ParsedTemplate(documentContent.toByteArray(), headerAndFooterPartNames);
     }
 
     protected void saveAndClose() {
         try {
             checkThreadInterrupted();
-            if (ReportOutputType.docx.equals(outputType)) {
+            if (ReportOutputType.docx.equals(outputType) && !streamingTables.isEmpty()) {
+                convertAltChunks();
+                writeStreamingDocument(outputStream);
+                outputStream.flush();
+            } else if (ReportOutputType.docx.equals(outputType)) {
                 convertAltChunks();
                 writeToOutputStream(wordprocessingMLPackage, outputStream);
                 outputStream.flush();
@@ -147,6 +243,9 @@ public class DocxFormatter extends AbstractFormatter {
                     writeToOutputStream(wordprocessingMLPackage, bos);
                     documentConverter.convertToPdf(DocumentConverter.FileType.DOCUMENT, bos.toByteArray(), outputStream);
                     outputStream.flush();
+                } else if (pdfExportContext != null) {
+                    pdfExportContext.toPdf(wordprocessingMLPackage, outputStream);
+                    outputStream.flush();
                 } else {
                     Docx4J.toPDF(wordprocessingMLPackage, outputStream);
                     outputStream.flush();
@@ -189,10 +288,11 @@ public class DocxFormatter extends AbstractFormatter {
             if (rowWithAliases != null) {
                 List<BandData> bands = rootBand.findBandsRecursively(resultingTable.getBandName());
 
-                if (bands.size() > 1) {
+                if (bands.size() > 1 && isStreamingSupported(resultingTable)) {
+                    writeStreamingTable(resultingTable, bands);
+                } else if (bands.size() > 1) {
                     for (final BandData band : bands) {
-                        Tr newRow = resultingTable.copyRow(rowWithAliases);
-                        resultingTable.fillRowFromBand(newRow, band);
+                        resultingTable.copyRowWithAliasesAndFill(band);
                     }
                     resultingTable.getTable().getContent().remove(rowWithAliases);
                 } else if (bands.size() == 1) {
@@ -208,6 +308,142 @@ public class DocxFormatter extends AbstractFormatter {
         }
     }
 
+    @Override
+    protected BandPathAndParameterName separateBandNameAndParameterName(String alias) {
+        return bandPathsAndParameterNames.computeIfAbsent(alias, super::separateBandNameAndParameterName);
+    }
+
+    @Override
+    protected BandData findBandByPath(String path) {
+        return bandsByPath.computeIfAbsent(path, p -> Optional.ofNullable(super.findBandByPath(p))).orElse(null);
+    }
+
+    protected boolean isStreamingSupported(TableManager table) {
+        if (!streamingEnabled || !ReportOutputType.docx.equals(outputType)
+                || documentWrapper.containsStructuredDocumentTags()) {
+            return false;
+        }
+        Map<String, ReportFieldFormat> valueFormats = rootBand.getReportFieldFormats();
+        if (valueFormats != null) {
+            for (Map.Entry<String, ReportFieldFormat> entry : valueFormats.entrySet()) {
+                if (entry.getKey().startsWith(table.getBandName() + ".")) {
+                    for (ContentInliner contentInliner : contentInliners) {
+                        if (contentInliner.getTagPattern().matcher(entry.getValue().getFormat()).find()) {
+                            return false;
+                        }
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes filled rows of the table to a temporary file and replaces the row with aliases with a placeholder.
+     * Hyperlinks of the row with aliases are handled here, as the written rows are not visited on the url handling.
+     */
+    protected void writeStreamingTable(TableManager table, List<BandData> bands) {
+        Tr rowWithAliases = table.getRowWithAliases();
+        new TraversalUtil(rowWithAliases, new UrlVisitor(new DocxFormatterDelegate(this), wordprocessingMLPackage.getMainDocumentPart()));
+
+        StreamingTableRows rows = new StreamingTableRows("yarg-rows-" + streamingTables.size());
+        streamingTables.add(rows);
+        try {
+            for (BandData band : bands) {
+                checkThreadInterrupted();
+                rows.writeRow(table.createRowFromBand(band));
+            }
+        } catch (IOException e) {
+            throw wrapWithReportingException("An error occurred while writing rows of the table", e);
+        }
+
+        List<Object> tableContent = table.getTable().getContent();
+        Tr placeholder = rows.createPlaceholder();
+        placeholder.setParent(table.getTable());
+        tableContent.set(tableContent.indexOf(rowWithAliases), placeholder);
+    }
+
+    /**
+     * Saves the package with placeholders of the streamed tables, the written rows are put into the document xml
+     * while the main document part is saved, other parts are written to the output as is
+     */
+    protected void writeStreamingDocument(OutputStream outputStream) throws Docx4JException {
+        MainDocumentPart mainDocumentPart = wordprocessingMLPackage.getMainDocumentPart();
+        SaveToZipFile saver = new SaveToZipFile(wordprocessingMLPackage) {
+            @Override
+            public void saveRawXmlPart(ZipOutputStream out, Part part, String zipEntryName) throws Docx4JException {
+                if (part != mainDocumentPart) {
+                    super.saveRawXmlPart(out, part, zipEntryName);
+                    return;
+                }
+                try {
+                    ByteArrayOutputStream documentXml = new ByteArrayOutputStream();
+                    mainDocumentPart.marshal(documentXml);
+                    out.putNextEntry(new ZipEntry(zipEntryName));
+                    writeStreamingDocumentXml(new String(documentXml.toByteArray(), StandardCharsets.UTF_8), out);
+                    out.closeEntry();
+                } catch (IOException | JAXBException e) {
+                    throw new Docx4JException("Unable to save part " + zipEntryName, e);
+                }
+            }
+        };
+        saver.save(outputStream);
+    }
+
+    protected void writeStreamingDocumentXml(String documentXml, OutputStream outputStream) throws IOException {
+        documentXml = declareStreamingNamespaces(documentXml);
+
+        //placeholders of the tables, which were removed from the document with their parent rows, are not found
+        NavigableMap<Integer, Map.Entry<Matcher, StreamingTableRows>> placeholders = new TreeMap<>();
+        for (StreamingTableRows rows : streamingTables) {
+            Matcher matcher = rows.getPlaceholderPattern().matcher(documentXml);
+            if (matcher.find()) {
+                placeholders.put(matcher.start(), new AbstractMap.SimpleEntry<>(matcher, rows));
+            }
+        }
+
+        int position = 0;
+        for (Map.Entry<Matcher, StreamingTableRows> placeholder : placeholders.values()) {
+            Matcher matcher = placeholder.getKey();
+            outputStream.write(documentXml.substring(position, matcher.start()).getBytes(StandardCharsets.UTF_8));
+            placeholder.getValue().transferTo(outputStream);
+            position = matcher.end();
+        }
+        outputStream.write(documentXml.substring(position).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Adds namespaces used by the streamed rows to the document element
+     */
+    protected String declareStreamingNamespaces(String documentXml) throws IOException {
+        Matcher startTagMatcher = DOCUMENT_START_TAG_PATTERN.matcher(documentXml);
+        if (!startTagMatcher.find()) {
+            throw new IOException("Unable to find document element");
+        }
+        String startTag = startTagMatcher.group();
+
+        Map<String, String> declaredNamespaces = new HashMap<>();
+        Matcher namespaceMatcher = NAMESPACE_DECLARATION_PATTERN.matcher(startTag);
+        while (namespaceMatcher.find()) {
+            declaredNamespaces.put(namespaceMatcher.group(1), namespaceMatcher.group(2));
+        }
+
+        StringBuilder declarations = new StringBuilder();
+        for (StreamingTableRows rows : streamingTables) {
+            for (Map.Entry<String, String> namespace : rows.getNamespaces().entrySet()) {
+                String declaredUri = declaredNamespaces.putIfAbsent(namespace.getKey(), namespace.getValue());
+                if (declaredUri == null) {
+                    declarations.append(" xmlns:").append(namespace.getKey()).append("=\"").append(namespace.getValue()).append('"');
+                } else if (!declaredUri.equals(namespace.getValue())) {
+                    throw new IOException(String.format("Prefix %s is bound to different namespaces", namespace.getKey()));
+                }
+            }
+        }
+
+        int insertPosition = startTagMatcher.end() - (startTag.endsWith("/>") ? 2 : 1);
+        return documentXml.substring(0, insertPosition) + declarations + documentXml.substring(insertPosition);
+    }
+
     protected boolean tryToApplyInliners(String fullParameterName, Object paramValue, Text text) {
         Map<String, ReportFieldFormat> valueFormats = rootBand.getReportFieldFormats();
         if (paramValue != null && valueFormats != null && valueFormats.containsKey(fullParameterName)) {
@@ -237,51 +473,179 @@ public class DocxFormatter extends AbstractFormatter {
         AltChunkFinder bf = new AltChunkFinder();
         new TraversalUtil(contentList, bf);
 
+        List<AltChunkFinder.LocatedChunk> xhtmlChunks = new ArrayList<>();
+        List<String> xhtmlSources = new ArrayList<>();
         for (AltChunkFinder.LocatedChunk locatedChunk : bf.getAltChunks()) {
             CTAltChunk altChunk = locatedChunk.getAltChunk();
             AlternativeFormatInputPart part
                     = (AlternativeFormatInputPart) mainDocumentPart.getRelationshipsPart().getPart(
                     altChunk.getId());
             if (part.getAltChunkType().equals(AltChunkType.Xhtml)) {
-                try {
-                    XHTMLImporter xHTMLImporter = new XHTMLImporterImpl(wordprocessingMLPackage);
-                    List results = xHTMLImporter.convert(
-                            htmlImportProcessor.processHtml(toString(part.getBuffer())), null);
-                    locatedChunk.getContentList().remove(locatedChunk.getIndex());
-                    Object chunkParent = locatedChunk.getAltChunk().getParent();
-                    R run = (R) chunkParent;//always should be R
-                    P paragraph = (P) run.getParent();
-                    ContentAccessor paragraphParent = (ContentAccessor) paragraph.getParent();
-
-                    if (paragraphParent instanceof ArrayListWml) {
-                        ArrayListWml parent = (ArrayListWml) paragraph.getParent();
-                        parent.addAll(parent.indexOf(paragraph), results);
-                        if (results.get(0) instanceof P) {
-                            P resultParagraph = (P) results.get(0);
-                            resultParagraph.setPPr(paragraph.getPPr());
-                        }
-                        parent.remove(paragraph);
-                    } else {
-                        List<Object> destinationContent = paragraphParent.getContent();
-                        int indexToAdd = destinationContent.indexOf(paragraph);
-                        destinationContent.remove(indexToAdd);
-                        for (Object result : results) {
-                            if (result instanceof P) {
-                                P resultParagraph = (P) result;
-                                destinationContent.add(indexToAdd++, resultParagraph);
-                            }
+                xhtmlChunks.add(locatedChunk);
+                xhtmlSources.add(toString(part.getBuffer()));
+            }
+        }
+        if (xhtmlChunks.isEmpty()) {
+            return;
+        }
+
+        Map<String, String> processedHtmls = processHtmls(new LinkedHashSet<>(xhtmlSources));
+        Map<String, Integer> usages = new HashMap<>();
+        for (String source : xhtmlSources) {
+            usages.merge(source, 1, Integer::sum);
+        }
+        Map<String, List<Object>> reusableResults = new HashMap<>();
+
+        for (int i = 0; i < xhtmlChunks.size(); i++) {
+            AltChunkFinder.LocatedChunk locatedChunk = xhtmlChunks.get(i);
+            String source = xhtmlSources.get(i);
+            String html = processedHtmls.get(source);
+            if (html == null) {
+                continue;
+            }
+            try {
+                int remainingUsages = usages.merge(source, -1, Integer::sum);
+                List results = convertHtml(html, reusableResults, remainingUsages);
+                locatedChunk.getContentList().remove(locatedChunk.getIndex());
+                Object chunkParent = locatedChunk.getAltChunk().getParent();
+                R run = (R) chunkParent;//always should be R
+                P paragraph = (P) run.getParent();
+                ContentAccessor paragraphParent = (ContentAccessor) paragraph.getParent();
+
+                if (paragraphParent instanceof ArrayListWml) {
+                    ArrayListWml parent = (ArrayListWml) paragraph.getParent();
+                    parent.addAll(parent.indexOf(paragraph), results);
+                    if (results.get(0) instanceof P) {
+                        P resultParagraph = (P) results.get(0);
+                        resultParagraph.setPPr(paragraph.getPPr());
+                    }
+                    parent.remove(paragraph);
+                } else {
+                    List<Object> destinationContent = paragraphParent.getContent();
+                    int indexToAdd = destinationContent.indexOf(paragraph);
+                    destinationContent.remove(indexToAdd);
+                    for (Object result : results) {
+                        if (result instanceof P) {
+                            P resultParagraph = (P) result;
+                            destinationContent.add(indexToAdd++, resultParagraph);
                         }
                     }
+                }
+            } catch (Exception e) {
+                log.error("An error occurred while converting HTML parts of DOCX document:", e);
+            }
+        }
+    }
+
+    /**
+     * Prepares distinct html sources for import with the {@link HtmlImportProcessor}
+     *
+     * @return processed html by source, sources which could not be processed are skipped
+     */
+    protected Map<String, String> processHtmls(Collection<String> sources) {
+        Map<String, String> processedHtmls = new HashMap<>();
+        if (htmlProcessingExecutor == null || sources.size() < 2) {
+            for (String source : sources) {
+                try {
+                    processedHtmls.put(source, htmlImportProcessor.processHtml(source));
                 } catch (Exception e) {
                     log.error("An error occurred while converting HTML parts of DOCX document:", e);
                 }
             }
+            return processedHtmls;
         }
+
+        Map<String, Future<String>> futures = new LinkedHashMap<>();
+        try {
+            for (String source : sources) {
+                futures.put(source, htmlProcessingExecutor.submit(() -> htmlImportProcessor.processHtml(source)));
+            }
+            for (Map.Entry<String, Future<String>> entry : futures.entrySet()) {
+                try {
+                    processedHtmls.put(entry.getKey(), entry.getValue().get());
+                } catch (ExecutionException e) {
+                    log.error("An error occurred while converting HTML parts of DOCX document:", e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ReportingInterruptedException("Formatting interrupted");
+        } finally {
+            for (Future<String> future : futures.values()) {
+                future.cancel(true);
+            }
+        }
+        return processedHtmls;
     }
 
-    private String toString(ByteBuffer bb) throws UnsupportedEncodingException {
-        byte[] bytes = new byte[bb.limit()];
-        bb.get(bytes);
-        return new String(bytes, "UTF-8");
+    /**
+     * Converts html to document content. Content of html which is used several times is converted once and copied
+     * for the other usages, unless the conversion adds list numbering (each list should be numbered separately).
+     */
+    protected List<Object> convertHtml(String html, Map<String, List<Object>> reusableResults, int remainingUsages) throws Docx4JException {
+        List<Object> results = remainingUsages > 0 ? reusableResults.get(html) : reusableResults.remove(html);
+        if (results == null) {
+            int numberingSize = getNumberingSize();
+            results = importHtml(html);
+            if (remainingUsages == 0 || getNumberingSize() != numberingSize) {
+                return results;
+            }
+            reusableResults.put(html, results);
+        }
+        if (remainingUsages == 0) {
+            return results;
+        }
+
+        List<Object> copies = new ArrayList<>(results.size());
+        for (Object result : results) {
+            Object copy = XmlCopyUtils.copyObjectGraph(result, new IdentityHashMap<>());
+            copies.add(copy != null ? copy : XmlUtils.deepCopy(result));
+        }
+        return copies;
+    }
+
+    /**
+     * Converts processed html to document content
+     */
+    protected List<Object> importHtml(String html) throws Docx4JException {
+        XHTMLImporter xHTMLImporter = new XHTMLImporterImpl(wordprocessingMLPackage);
+        return xHTMLImporter.convert(html, null);
+    }
+
+    protected int getNumberingSize() {
+        NumberingDefinitionsPart numberingPart = wordprocessingMLPackage.getMainDocumentPart().getNumberingDefinitionsPart();
+        return numberingPart != null ? numberingPart.getJaxbElement().getNum().size() : 0;
+    }
+
+    private String toString(ByteBuffer bb) {
+        return StandardCharsets.UTF_8.decode(bb.duplicate()).toString();
+    }
+
+    /**
+     * Template with merged aliases, which does not depend on report data.
+     * Might be shared between report runs, so it must not be modified.
+     */
+    public static class ParsedTemplate {
+        protected final byte[] documentContent;
+        protected final Set<PartName> headerAndFooterPartNames;
+
+        protected ParsedTemplate(byte[] documentContent, Set<PartName> headerAndFooterPartNames) {
+            this.documentContent = documentContent;
+            this.headerAndFooterPartNames = Collections.unmodifiableSet(headerAndFooterPartNames);
+        }
+
+        /**
+         * @return template package in which each alias is placed in one text
+         */
+        public byte[] getDocumentContent() {
+            return documentContent;
+        }
+
+        /**
+         * @return names of header and footer parts containing aliases
+         */
+        public Set<PartName> getHeaderAndFooterPartNames() {
+            return headerAndFooterPartNames;
+        }
     }
 }
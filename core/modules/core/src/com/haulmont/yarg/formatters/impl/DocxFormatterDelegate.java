@@ -67,6 +67,10 @@ public class DocxFormatterDelegate {
         return docxFormatter.insertBandDataToString(bandData, resultStr);
     }
 
+    public AliasTemplate getAliasTemplate(String template) {
+        return docxFormatter.getAliasTemplate(template);
+    }
+
     public ReportFormattingException wrapWithReportingException(String message) {
         return docxFormatter.wrapWithReportingException(message);
     }
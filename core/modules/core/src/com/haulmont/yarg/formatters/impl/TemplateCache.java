@@ -0,0 +1,87 @@
+/*
+ * Copyright 2013 Haulmont
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.haulmont.yarg.formatters.impl;
+
+import com.google.common.hash.Hashing;
+import com.haulmont.yarg.structure.ReportTemplate;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps parsed templates between report runs, keyed by template name and content hash.
+ * Cached objects are shared between formatters (and threads), so they should be used only for reading.
+ */
+public class TemplateCache<T> {
+    public static final int DEFAULT_MAX_SIZE = 50;
+
+    protected final Map<String, T> entries;
+
+    public TemplateCache() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    public TemplateCache(int maxSize) {
+        this.entries = new LinkedHashMap<String, T>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, T> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Returns cached template for the content or loads and caches it
+     */
+    public T get(ReportTemplate reportTemplate, byte[] content, Loader<T> loader) throws Exception {
+        String key = getKey(reportTemplate, content);
+        T entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+        }
+        if (entry == null) {
+            entry = loader.load(content);
+            synchronized (entries) {
+                T existing = entries.putIfAbsent(key, entry);
+                if (existing != null) {
+                    entry = existing;
+                }
+            }
+        }
+        return entry;
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    protected String getKey(ReportTemplate reportTemplate, byte[] content) {
+        return reportTemplate.getDocumentName() + ":" + Hashing.sha256().hashBytes(content);
+    }
+
+    public interface Loader<T> {
+        T load(byte[] content) throws Exception;
+    }
+}
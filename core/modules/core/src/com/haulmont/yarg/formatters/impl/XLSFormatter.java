@@ -18,6 +18,9 @@ package com.haulmont.yarg.formatters.impl;
 
 import com.google.common.collect.BiMap;
 import com.google.common.collect.HashBiMap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
 import com.haulmont.yarg.exception.ReportingException;
 import com.haulmont.yarg.exception.UnsupportedFormatException;
 import com.haulmont.yarg.formatters.factory.FormatterFactoryInput;
@@ -25,11 +28,13 @@ import com.haulmont.yarg.formatters.impl.xls.Area;
 import com.haulmont.yarg.formatters.impl.xls.AreaDependencyManager;
 import com.haulmont.yarg.formatters.impl.xls.Cell;
 import com.haulmont.yarg.formatters.impl.xls.DocumentConverter;
+import com.haulmont.yarg.formatters.impl.xls.HSSFRangeHelper;
 import com.haulmont.yarg.formatters.impl.xls.caches.XlsFontCache;
 import com.haulmont.yarg.formatters.impl.xls.caches.XlsStyleCache;
 import com.haulmont.yarg.formatters.impl.xls.caches.XslStyleHelper;
 import com.haulmont.yarg.formatters.impl.xls.hints.*;
 import com.haulmont.yarg.formatters.impl.xlsx.Range;
+import com.haulmont.yarg.formatters.impl.xlsx.RangeIndex;
 import com.haulmont.yarg.structure.BandData;
 import com.haulmont.yarg.structure.BandOrientation;
 import com.haulmont.yarg.structure.ReportOutputType;
@@ -37,9 +42,9 @@ import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.poi.hssf.model.HSSFFormulaParser;
-import org.apache.poi.hssf.record.EscherAggregate;
 import org.apache.poi.hssf.usermodel.*;
 import org.apache.poi.ss.SpreadsheetVersion;
+import org.apache.poi.ss.formula.EvaluationSheet;
 import org.apache.poi.ss.formula.ptg.AreaPtg;
 import org.apache.poi.ss.formula.ptg.Ptg;
 import org.apache.poi.ss.formula.ptg.RefPtg;
@@ -49,6 +54,7 @@ import org.apache.poi.ss.util.AreaReference;
 import org.apache.poi.ss.util.CellRangeAddress;
 import org.apache.poi.ss.util.CellReference;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.*;
@@ -67,6 +73,8 @@ public class XLSFormatter extends AbstractFormatter {
 
     protected HSSFWorkbook templateWorkbook;
     protected HSSFWorkbook resultWorkbook;
+    protected ParsedTemplate parsedTemplate;
+    protected TemplateCache<ParsedTemplate> templateCache;
 
     protected HSSFSheet currentTemplateSheet = null;
 
@@ -78,15 +86,23 @@ public class XLSFormatter extends AbstractFormatter {
     protected int rowsAddedByVerticalBand = 0;
     protected int rowsAddedByHorizontalBand = 0;
 
-    protected Map<String, List<SheetRange>> mergeRegionsForRangeNames = new HashMap<>();
     protected Map<HSSFSheet, HSSFSheet> templateToResultSheetsMapping = new HashMap<>();
     protected Map<String, Bounds> templateBounds = new HashMap<>();
+    /**
+     * Merge regions of result sheets which are added to the sheets after rendering of all bands
+     */
+    protected Map<HSSFSheet, RangeIndex<CellRangeAddress>> resultMergeRegions = new LinkedHashMap<>();
+    protected HSSFEvaluationWorkbook resultEvaluationWorkbook;
+    /**
+     * Tokens of result formulas changed by area dependencies, they are written to the cells after all dependencies
+     * are processed, so each formula is written once
+     */
+    protected Map<HSSFCell, Ptg[]> updatedFormulas = new LinkedHashMap<>();
 
     protected AreaDependencyManager areaDependencyManager = new AreaDependencyManager();
     protected Map<Area, List<Area>> areasDependency = areaDependencyManager.getAreasDependency();
 
     protected List<Integer> orderedPicturesId = new ArrayList<>();
-    protected Map<String, EscherAggregate> sheetToEscherAggregate = new HashMap<>();
 
     protected Map<HSSFSheet, HSSFPatriarch> drawingPatriarchsMap = new HashMap<>();
     protected List<XlsHint> hints = new ArrayList<>();
@@ -110,6 +126,13 @@ public class XLSFormatter extends AbstractFormatter {
         this.documentConverter = documentConverter;
     }
 
+    /**
+     * Sets cache of analysed templates shared between report runs. Templates are analysed for each run if cache is not set.
+     */
+    public void setTemplateCache(TemplateCache<ParsedTemplate> templateCache) {
+        this.templateCache = templateCache;
+    }
+
     @Override
     public void renderDocument() {
         initWorkbook();
@@ -123,9 +146,18 @@ public class XLSFormatter extends AbstractFormatter {
 
     protected void initWorkbook() {
         try {
-            templateWorkbook = new HSSFWorkbook(reportTemplate.getDocumentContent());
-            resultWorkbook = new HSSFWorkbook(reportTemplate.getDocumentContent());
-        } catch (IOException e) {
+            byte[] templateContent = IOUtils.toByteArray(reportTemplate.getDocumentContent());
+            templateWorkbook = new HSSFWorkbook(new ByteArrayInputStream(templateContent));
+            if (templateCache != null) {
+                parsedTemplate = templateCache.get(reportTemplate, templateContent, this::parseTemplate);
+                resultWorkbook = new HSSFWorkbook(new ByteArrayInputStream(parsedTemplate.getResultContent()));
+            } else {
+                resultWorkbook = new HSSFWorkbook(new ByteArrayInputStream(templateContent));
+                parsedTemplate = analyseTemplate(templateWorkbook, resultWorkbook);
+            }
+        } catch (ReportingException e) {
+            throw e;
+        } catch (Exception e) {
             throw wrapWithReportingException("An error occurred while parsing xls template " + reportTemplate.getDocumentName(), e);
         }
 
@@ -134,23 +166,63 @@ public class XLSFormatter extends AbstractFormatter {
             HSSFSheet resultSheet = resultWorkbook.getSheetAt(sheetNumber);
             templateToResultSheetsMapping.put(templateSheet, resultSheet);
 
-            initMergeRegions(templateSheet);
             copyCharts(resultSheet);
+        }
+
+        orderedPicturesId.addAll(parsedTemplate.getOrderedPicturesId());
+
+        initNamedStyleCache();
+    }
+
+    protected ParsedTemplate parseTemplate(byte[] templateContent) throws IOException {
+        HSSFWorkbook template = new HSSFWorkbook(new ByteArrayInputStream(templateContent));
+        HSSFWorkbook result = new HSSFWorkbook(new ByteArrayInputStream(templateContent));
+        ParsedTemplate analysis = analyseTemplate(template, result);
+
+        ByteArrayOutputStream resultContent = new ByteArrayOutputStream();
+        result.write(resultContent);
+        return new ParsedTemplate(resultContent.toByteArray(), analysis);
+    }
+
+    /**
+     * Collects template data which does not depend on report data and prepares the result workbook:
+     * merge regions and cells are removed, template pictures are added to the result workbook
+     */
+    protected ParsedTemplate analyseTemplate(HSSFWorkbook template, HSSFWorkbook result) {
+        Map<String, List<SheetRange>> mergeRegions = new HashMap<>();
+        List<List<HSSFClientAnchor>> pictureAnchors = new ArrayList<>();
+        for (int sheetNumber = 0; sheetNumber < template.getNumberOfSheets(); sheetNumber++) {
+            HSSFSheet templateSheet = template.getSheetAt(sheetNumber);
+            HSSFSheet resultSheet = result.getSheetAt(sheetNumber);
+
+            initMergeRegions(template, templateSheet, mergeRegions);
+            pictureAnchors.add(getAllAnchors(templateSheet.getDrawingEscherAggregate()));
             removeMergedRegions(resultSheet);
             cleanupCells(resultSheet);
         }
 
-        copyPicturesToResultWorkbook();
+        List<Integer> picturesId = copyPicturesToResultWorkbook(template, result);
 
-        initNamedStyleCache();
+        List<Short> namedStyles = new ArrayList<>();
+        for (short i = 0; i < result.getNumCellStyles(); i++) {
+            if (StringUtils.isNotBlank(result.getCellStyleAt(i).getUserStyleName())) {
+                namedStyles.add(i);
+            }
+        }
+
+        Map<String, AreaReference> areasForRangeNames = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (int i = 0; i < template.getNumberOfNames(); i++) {
+            HSSFName name = template.getNameAt(i);
+            if (!areasForRangeNames.containsKey(name.getNameName()) && AreaReference.isContiguous(name.getRefersToFormula())) {
+                areasForRangeNames.put(name.getNameName(), new AreaReference(name.getRefersToFormula(), SpreadsheetVersion.EXCEL97));
+            }
+        }
+        return new ParsedTemplate(null, mergeRegions, pictureAnchors, picturesId, namedStyles, areasForRangeNames);
     }
 
     protected void initNamedStyleCache() {
-        for (short i = 0; i < resultWorkbook.getNumCellStyles(); i++) {
-            HSSFCellStyle cellStyle = resultWorkbook.getCellStyleAt(i);
-            if (StringUtils.isNotBlank(cellStyle.getUserStyleName())) {
-                styleCache.addNamedStyle(cellStyle);
-            }
+        for (Short i : parsedTemplate.getNamedStyles()) {
+            styleCache.addNamedStyle(resultWorkbook.getCellStyleAt(i));
         }
     }
 
@@ -160,6 +232,7 @@ public class XLSFormatter extends AbstractFormatter {
             writeBand(childBand);
         }
 
+        addMergeRegions();
         updateFormulas();
         copyPictures();
     }
@@ -197,12 +270,14 @@ public class XLSFormatter extends AbstractFormatter {
         }
     }
 
-    protected void copyPicturesToResultWorkbook() {
-        List<HSSFPictureData> allPictures = templateWorkbook.getAllPictures();
+    protected List<Integer> copyPicturesToResultWorkbook(HSSFWorkbook template, HSSFWorkbook result) {
+        List<Integer> picturesId = new ArrayList<>();
+        List<HSSFPictureData> allPictures = template.getAllPictures();
         for (HSSFPictureData allPicture : allPictures) {
-            int i = resultWorkbook.addPicture(allPicture.getData(), Workbook.PICTURE_TYPE_JPEG);
-            orderedPicturesId.add(i);
+            int i = result.addPicture(allPicture.getData(), Workbook.PICTURE_TYPE_JPEG);
+            picturesId.add(i);
         }
+        return picturesId;
     }
 
     protected void removeMergedRegions(HSSFSheet resultSheet) {
@@ -245,6 +320,14 @@ public class XLSFormatter extends AbstractFormatter {
                 updateFormulas(original, dependent);
             }
         }
+        writeUpdatedFormulas();
+    }
+
+    protected void writeUpdatedFormulas() {
+        for (Map.Entry<HSSFCell, Ptg[]> entry : updatedFormulas.entrySet()) {
+            entry.getKey().setCellFormula(HSSFFormulaParser.toFormulaString(resultWorkbook, entry.getValue()));
+        }
+        updatedFormulas.clear();
     }
 
     protected void copyPictures() {
@@ -259,7 +342,7 @@ public class XLSFormatter extends AbstractFormatter {
     protected void writeBand(BandData band) {
         String rangeName = band.getName();
         try {
-            HSSFSheet templateSheet = getTemplateSheetForRangeName(templateWorkbook, rangeName);
+            HSSFSheet templateSheet = getTemplateSheetForRangeName(rangeName);
 
             if (templateSheet != currentTemplateSheet) { //todo: reimplement. store rownum for each sheet.
                 currentTemplateSheet = templateSheet;
@@ -291,11 +374,11 @@ public class XLSFormatter extends AbstractFormatter {
      */
     protected void writeHorizontalBand(BandData band, HSSFSheet templateSheet, HSSFSheet resultSheet) {
         String rangeName = band.getName();
-        AreaReference templateRange = getAreaForRange(templateWorkbook, rangeName);
+        AreaReference templateRange = getAreaForRange(rangeName);
         if (templateRange == null) {
             throw wrapWithReportingException(String.format("No such named range in xls file: %s", rangeName));
         }
-        CellReference[] crefs = templateRange.getAllReferencedCells();
+        Bounds bounds = getBounds(templateRange);
 
         CellReference topLeft, bottomRight;
         AreaReference resultRange;
@@ -303,25 +386,24 @@ public class XLSFormatter extends AbstractFormatter {
         int rowsAddedByHorizontalBandBackup = rowsAddedByHorizontalBand;
         int rownumBackup = rownum;
 
-        if (crefs != null) {
-            addRangeBounds(band, crefs);
+        addRangeBounds(band, bounds);
 
-            ArrayList<HSSFRow> resultRows = new ArrayList<>();
+        ArrayList<HSSFRow> resultRows = new ArrayList<>();
 
-            int currentRowNum = -1;
-            int currentRowCount = -1;
-            int currentColumnCount = 0;
-            int offset = 0;
+        int currentRowNum = -1;
+        int currentRowCount = -1;
+        int currentColumnCount = 0;
+        int offset = 0;
 
-            topLeft = new CellReference(rownum + rowsAddedByHorizontalBand, 0);
-            // no child bands - merge regions now
-            if (band.getChildrenList().isEmpty()) {
-                copyMergeRegions(resultSheet, rangeName, rownum + rowsAddedByHorizontalBand,
-                        getCellFromReference(crefs[0], templateSheet).getColumnIndex());
-            }
+        topLeft = new CellReference(rownum + rowsAddedByHorizontalBand, 0);
+        // no child bands - merge regions now
+        if (band.getChildrenList().isEmpty()) {
+            copyMergeRegions(resultSheet, rangeName, rownum + rowsAddedByHorizontalBand, bounds.column0);
+        }
 
-            for (CellReference cellRef : crefs) {
-                HSSFCell templateCell = getCellFromReference(cellRef, templateSheet);
+        for (int row = bounds.row0; row <= bounds.row1; row++) {
+            for (int column = bounds.column0; column <= bounds.column1; column++) {
+                HSSFCell templateCell = getCellFromReference(templateSheet, column, row);
                 HSSFRow resultRow;
                 if (templateCell.getRowIndex() != currentRowNum) { //create new row
                     resultRow = resultSheet.createRow(rownum + rowsAddedByHorizontalBand);
@@ -350,26 +432,25 @@ public class XLSFormatter extends AbstractFormatter {
 
                 copyCellFromTemplate(templateCell, resultRow, offset + currentColumnCount, band);
             }
+        }
 
-            bottomRight = new CellReference(rownum + rowsAddedByHorizontalBand - 1, offset + currentColumnCount);
-            resultRange = new AreaReference(topLeft, bottomRight, SpreadsheetVersion.EXCEL97);
+        bottomRight = new CellReference(rownum + rowsAddedByHorizontalBand - 1, offset + currentColumnCount);
+        resultRange = new AreaReference(topLeft, bottomRight, SpreadsheetVersion.EXCEL97);
 
-            areaDependencyManager.addDependency(new Area(band.getName(), Area.AreaAlign.HORIZONTAL, templateRange),
-                    new Area(band.getName(), Area.AreaAlign.HORIZONTAL, resultRange));
-            bandsToResultRanges.put(band, new Range(resultSheet.getSheetName(),
-                    resultRange.getFirstCell().getCol() + 1, resultRange.getFirstCell().getRow() + 1,
-                    resultRange.getLastCell().getCol() + 1, resultRange.getLastCell().getRow() + 1
-            ));
-        }
+        areaDependencyManager.addDependency(new Area(band.getName(), Area.AreaAlign.HORIZONTAL, templateRange),
+                new Area(band.getName(), Area.AreaAlign.HORIZONTAL, resultRange));
+        bandsToResultRanges.put(band, new Range(resultSheet.getSheetName(),
+                resultRange.getFirstCell().getCol() + 1, resultRange.getFirstCell().getRow() + 1,
+                resultRange.getLastCell().getCol() + 1, resultRange.getLastCell().getRow() + 1
+        ));
 
         for (BandData child : band.getChildrenList()) {
             writeBand(child);
         }
 
         // scheduled merge regions
-        if (!band.getChildrenList().isEmpty() && crefs != null) {
-            copyMergeRegions(resultSheet, rangeName, rownumBackup + rowsAddedByHorizontalBandBackup,
-                    getCellFromReference(crefs[0], templateSheet).getColumnIndex());
+        if (!band.getChildrenList().isEmpty()) {
+            copyMergeRegions(resultSheet, rangeName, rownumBackup + rowsAddedByHorizontalBandBackup, bounds.column0);
         }
 
         rownum += rowsAddedByHorizontalBand;
@@ -388,12 +469,13 @@ public class XLSFormatter extends AbstractFormatter {
      */
     protected void writeVerticalBand(BandData band, HSSFSheet templateSheet, HSSFSheet resultSheet) {
         String rangeName = band.getName();
-        CellReference[] crefs = getRangeContent(templateWorkbook, rangeName);
+        AreaReference templateRange = getAreaForRange(rangeName);
+        Bounds bounds = templateRange != null ? getBounds(templateRange) : null;
 
         Set<Integer> addedRowNumbers = new HashSet<>();
 
-        if (crefs != null) {
-            addRangeBounds(band, crefs);
+        if (bounds != null) {
+            addRangeBounds(band, bounds);
 
             Bounds thisBounds = templateBounds.get(band.getName());
             Bounds parentBounds = templateBounds.get(band.getParentBand().getName());
@@ -403,42 +485,36 @@ public class XLSFormatter extends AbstractFormatter {
                     parentRange.getFirstRow() - 1 + thisBounds.row0 - parentBounds.row0 :
                     rownum;
 
-            colnum = colnum == 0 ? getCellFromReference(crefs[0], templateSheet).getColumnIndex() : colnum;
+            colnum = colnum == 0 ? bounds.column0 : colnum;
             copyMergeRegions(resultSheet, rangeName, localRowNum, colnum);
 
-            int firstRow = crefs[0].getRow();
-            int firstColumn = crefs[0].getCol();
-
-            for (CellReference cref : crefs) {//create necessary rows
-                int currentRow = cref.getRow();
-                final int rowOffset = currentRow - firstRow;
+            for (int row = bounds.row0; row <= bounds.row1; row++) {//create necessary rows
+                final int rowOffset = row - bounds.row0;
                 if (!rowExists(resultSheet, localRowNum + rowOffset)) {
                     HSSFRow resultRow = resultSheet.createRow(localRowNum + rowOffset);
-                    copyPageBreaks(templateSheet, resultSheet, cref.getRow(), resultRow.getRowNum());
+                    copyPageBreaks(templateSheet, resultSheet, row, resultRow.getRowNum());
                 }
-                addedRowNumbers.add(cref.getRow());
+                addedRowNumbers.add(row);
             }
 
-            CellReference topLeft = null;
-            CellReference bottomRight = null;
-            for (CellReference cref : crefs) {
-                int currentRow = cref.getRow();
-                int currentColumn = cref.getCol();
-                final int rowOffset = currentRow - firstRow;
-                final int columnOffset = currentColumn - firstColumn;
-
-                HSSFCell templateCell = getCellFromReference(cref, templateSheet);
-                resultSheet.setColumnWidth(colnum + columnOffset, templateSheet.getColumnWidth(templateCell.getColumnIndex()));
-                HSSFCell resultCell = copyCellFromTemplate(templateCell, resultSheet.getRow(localRowNum + rowOffset), colnum + columnOffset, band);
-                if (topLeft == null) {
-                    topLeft = new CellReference(resultCell);
+            for (int row = bounds.row0; row <= bounds.row1; row++) {
+                final int rowOffset = row - bounds.row0;
+                HSSFRow resultRow = resultSheet.getRow(localRowNum + rowOffset);
+                for (int column = bounds.column0; column <= bounds.column1; column++) {
+                    final int columnOffset = column - bounds.column0;
+
+                    HSSFCell templateCell = getCellFromReference(templateSheet, column, row);
+                    resultSheet.setColumnWidth(colnum + columnOffset, templateSheet.getColumnWidth(column));
+                    copyCellFromTemplate(templateCell, resultRow, colnum + columnOffset, band);
                 }
-                bottomRight = new CellReference(resultCell);
             }
 
-            colnum += crefs[crefs.length - 1].getCol() - firstColumn + 1;
+            CellReference topLeft = new CellReference(resultSheet.getSheetName(), localRowNum, colnum, false, false);
+            CellReference bottomRight = new CellReference(resultSheet.getSheetName(),
+                    localRowNum + bounds.row1 - bounds.row0, colnum + bounds.column1 - bounds.column0, false, false);
+
+            colnum += bounds.column1 - bounds.column0 + 1;
 
-            AreaReference templateRange = getAreaForRange(templateWorkbook, rangeName);
             AreaReference resultRange = new AreaReference(topLeft, bottomRight, SpreadsheetVersion.EXCEL97);
             areaDependencyManager.addDependency(new Area(band.getName(), Area.AreaAlign.VERTICAL, templateRange),
                     new Area(band.getName(), Area.AreaAlign.VERTICAL, resultRange));
@@ -465,9 +541,12 @@ public class XLSFormatter extends AbstractFormatter {
      * Attention: if merged regions writes wrong - look on methods isMergeRegionInsideNamedRange or isNamedRangeInsideMergeRegion
      * todo: how to recognize if merge region must be copied with named range
      *
-     * @param currentSheet Sheet which contains merge regions
+     * @param templateWorkbook Template workbook which contains named ranges
+     * @param currentSheet     Sheet which contains merge regions
+     * @param mergeRegions     Map to put merge regions of named ranges into
      */
-    protected void initMergeRegions(HSSFSheet currentSheet) {
+    protected void initMergeRegions(HSSFWorkbook templateWorkbook, HSSFSheet currentSheet,
+                                    Map<String, List<SheetRange>> mergeRegions) {
         int rangeNumber = templateWorkbook.getNumberOfNames();
         for (int i = 0; i < rangeNumber; i++) {
             HSSFName aNamedRange = templateWorkbook.getNameAt(i);
@@ -502,12 +581,12 @@ public class XLSFormatter extends AbstractFormatter {
                     if (mergedInsideNamed || namedInsideMerged) {
                         String name = aNamedRange.getNameName();
                         SheetRange sheetRange = new SheetRange(mergedRegion, currentSheet.getSheetName());
-                        if (mergeRegionsForRangeNames.get(name) == null) {
+                        if (mergeRegions.get(name) == null) {
                             ArrayList<SheetRange> list = new ArrayList<>();
                             list.add(sheetRange);
-                            mergeRegionsForRangeNames.put(name, list);
+                            mergeRegions.put(name, list);
                         } else {
-                            mergeRegionsForRangeNames.get(name).add(sheetRange);
+                            mergeRegions.get(name).add(sheetRange);
                         }
                     }
                 }
@@ -526,15 +605,13 @@ public class XLSFormatter extends AbstractFormatter {
      */
     protected void copyMergeRegions(HSSFSheet resultSheet, String rangeName,
                                     int firstTargetRangeRow, int firstTargetRangeColumn) {
-        int rangeNameIdx = templateWorkbook.getNameIndex(rangeName);
-        if (rangeNameIdx == -1) return;
+        AreaReference aref = getAreaForRange(rangeName);
+        if (aref == null) return;
 
-        HSSFName aNamedRange = templateWorkbook.getNameAt(rangeNameIdx);
-        AreaReference aref = new AreaReference(aNamedRange.getRefersToFormula(), SpreadsheetVersion.EXCEL97);
         int column = aref.getFirstCell().getCol();
         int row = aref.getFirstCell().getRow();
 
-        List<SheetRange> regionsList = mergeRegionsForRangeNames.get(rangeName);
+        List<SheetRange> regionsList = parsedTemplate.getMergeRegionsForRangeNames().get(rangeName);
         if (regionsList != null)
             for (SheetRange sheetRange : regionsList) {
                 if (resultSheet.getSheetName().equals(sheetRange.getSheetName())) {
@@ -553,26 +630,34 @@ public class XLSFormatter extends AbstractFormatter {
                         newRegion.setFirstRow(regionVOffset + firstTargetRangeRow);
                         newRegion.setLastRow(regionVOffset + regionHeight - 1 + firstTargetRangeRow);
 
-                        boolean skipRegion = false;
-
-                        for (int mergedIndex = 0; mergedIndex < resultSheet.getNumMergedRegions(); mergedIndex++) {
-                            CellRangeAddress mergedRegion = resultSheet.getMergedRegion(mergedIndex);
-
-                            if (!intersects(newRegion, mergedRegion)) {
-                                continue;
-                            }
-
-                            skipRegion = true;
-                        }
-
-                        if (!skipRegion) {
-                            resultSheet.addMergedRegion(newRegion);
+                        RangeIndex<CellRangeAddress> mergeRegions =
+                                resultMergeRegions.computeIfAbsent(resultSheet, sheet -> new RangeIndex<>());
+                        Range newRange = toRange(resultSheet, newRegion);
+                        if (!mergeRegions.intersectsAny(newRange)) {
+                            mergeRegions.add(newRange, newRegion);
                         }
                     }
                 }
             }
     }
 
+    protected Range toRange(HSSFSheet sheet, CellRangeAddress region) {
+        return new Range(sheet.getSheetName(), region.getFirstColumn() + 1, region.getFirstRow() + 1,
+                region.getLastColumn() + 1, region.getLastRow() + 1);
+    }
+
+    /**
+     * Adds collected merge regions to result sheets. Regions do not intersect, so they are not validated by POI again
+     */
+    protected void addMergeRegions() {
+        for (Map.Entry<HSSFSheet, RangeIndex<CellRangeAddress>> entry : resultMergeRegions.entrySet()) {
+            for (CellRangeAddress region : entry.getValue().values()) {
+                entry.getKey().addMergedRegionUnsafe(region);
+            }
+        }
+        resultMergeRegions.clear();
+    }
+
     protected boolean intersects(CellRangeAddress x, CellRangeAddress y) {
         return (x.getFirstColumn() <= y.getLastColumn() &&
                 x.getLastColumn() >= y.getFirstColumn() &&
@@ -634,7 +719,6 @@ public class XLSFormatter extends AbstractFormatter {
     protected void updateValueCell(BandData rootBand, BandData bandData, String templateCellValue, HSSFCell resultCell, HSSFPatriarch patriarch) {
         String parameterName = templateCellValue;
         parameterName = unwrapParameterName(parameterName);
-        String fullParameterName = bandData.getName() + "." + parameterName;
 
         if (StringUtils.isEmpty(parameterName)) return;
 
@@ -650,15 +734,15 @@ public class XLSFormatter extends AbstractFormatter {
             return;
         }
 
-        String formatString = getFormatString(parameterName, fullParameterName);
-        InlinerAndMatcher inlinerAndMatcher = getContentInlinerForFormat(formatString);
+        FieldFormat fieldFormat = getFieldFormat(bandData.getName(), parameterName);
+        InlinerAndMatcher inlinerAndMatcher = fieldFormat.inlinerAndMatcher;
         if (inlinerAndMatcher != null) {
             inlinerAndMatcher.contentInliner.inlineToXls(patriarch, resultCell, value, inlinerAndMatcher.matcher);
             return;
         }
 
-        if (formatString != null) {
-            resultCell.setCellValue(new HSSFRichTextString(formatValue(value, parameterName, fullParameterName)));
+        if (fieldFormat.formatString != null) {
+            resultCell.setCellValue(new HSSFRichTextString(formatValue(value, fieldFormat, null)));
         } else if (value instanceof Number) {
             resultCell.setCellValue(((Number) value).doubleValue());
         } else if (value instanceof Boolean) {
@@ -666,7 +750,7 @@ public class XLSFormatter extends AbstractFormatter {
         } else if (value instanceof Date) {
             resultCell.setCellValue((Date) value);
         } else {
-            resultCell.setCellValue(new HSSFRichTextString(formatValue(value, parameterName, fullParameterName)));
+            resultCell.setCellValue(new HSSFRichTextString(formatValue(value, fieldFormat, null)));
         }
     }
 
@@ -709,37 +793,94 @@ public class XLSFormatter extends AbstractFormatter {
      * @param crefs - range
      */
     protected void addRangeBounds(BandData band, CellReference[] crefs) {
-        if (templateBounds.containsKey(band.getName()))
-            return;
-        Bounds bounds = new Bounds(crefs[0].getRow(), crefs[0].getCol(), crefs[crefs.length - 1].getRow(), crefs[crefs.length - 1].getCol());
-        templateBounds.put(band.getName(), bounds);
+        addRangeBounds(band, new Bounds(crefs[0].getRow(), crefs[0].getCol(), crefs[crefs.length - 1].getRow(), crefs[crefs.length - 1].getCol()));
+    }
+
+    protected void addRangeBounds(BandData band, Bounds bounds) {
+        templateBounds.putIfAbsent(band.getName(), bounds);
+    }
+
+    /**
+     * @return bounds of the area, cells of the area might be iterated by rows and columns without creating references
+     */
+    protected Bounds getBounds(AreaReference area) {
+        CellReference first = area.getFirstCell();
+        CellReference last = area.getLastCell();
+        return new Bounds(Math.min(first.getRow(), last.getRow()), Math.min(first.getCol(), last.getCol()),
+                Math.max(first.getRow(), last.getRow()), Math.max(first.getCol(), last.getCol()));
     }
 
     protected void updateFormulas(Area templateArea, Area dependentResultArea) {
-        HSSFSheet templateSheet = getTemplateSheetForRangeName(templateWorkbook, templateArea.getName());
+        HSSFSheet templateSheet = getTemplateSheetForRangeName(templateArea.getName());
         HSSFSheet resultSheet = templateToResultSheetsMapping.get(templateSheet);
 
-        AreaReference area = dependentResultArea.toAreaReference();
-        for (CellReference cell : area.getAllReferencedCells()) {
-            HSSFCell resultCell = getCellFromReference(cell, resultSheet);
+        Bounds bounds = getBounds(dependentResultArea.toAreaReference());
+        for (int row = bounds.row0; row <= bounds.row1; row++) {
+            for (int column = bounds.column0; column <= bounds.column1; column++) {
+                updateFormula(templateArea, dependentResultArea, getCellFromReference(resultSheet, column, row));
+            }
+        }
+    }
 
-            if (resultCell.getCellType() == CellType.FORMULA) {
-                Ptg[] ptgs = HSSFFormulaParser.parse(resultCell.getCellFormula(), resultWorkbook);
+    /**
+     * Moves references of the cell formula according to the area dependency. Changed tokens are kept
+     * in {@link #updatedFormulas} until {@link #writeUpdatedFormulas()}
+     */
+    protected void updateFormula(Area templateArea, Area dependentResultArea, HSSFCell resultCell) {
+        if (resultCell.getCellType() == CellType.FORMULA) {
+            Ptg[] ptgs = updatedFormulas.get(resultCell);
+            if (ptgs == null) {
+                ptgs = getFormulaTokens(resultCell);
+            }
 
-                for (Ptg ptg : ptgs) {
-                    if (ptg instanceof AreaPtg) {
-                        areaDependencyManager.updateAreaPtg(templateArea, dependentResultArea, (AreaPtg) ptg);
-                    } else if (ptg instanceof RefPtg) {
-                        areaDependencyManager.updateRefPtg(templateArea, dependentResultArea, (RefPtg) ptg);
-                    }
-                }
+            boolean formulaChanged = false;
+            for (Ptg ptg : ptgs) {
+                formulaChanged |= updatePtg(templateArea, dependentResultArea, ptg);
+            }
 
-                String calculatedFormula = HSSFFormulaParser.toFormulaString(templateWorkbook, ptgs);
-                resultCell.setCellFormula(calculatedFormula);
+            if (formulaChanged) {
+                updatedFormulas.put(resultCell, ptgs);
             }
         }
     }
 
+    /**
+     * Returns tokens of the cell formula without rendering it to text, the tokens are decoded for each call,
+     * so they might be modified
+     */
+    protected Ptg[] getFormulaTokens(HSSFCell cell) {
+        if (resultEvaluationWorkbook == null) {
+            resultEvaluationWorkbook = HSSFEvaluationWorkbook.create(resultWorkbook);
+        }
+        EvaluationSheet sheet = resultEvaluationWorkbook.getSheet(resultWorkbook.getSheetIndex(cell.getSheet()));
+        return resultEvaluationWorkbook.getFormulaTokens(sheet.getCell(cell.getRowIndex(), cell.getColumnIndex()));
+    }
+
+    /**
+     * Moves cell references of the token according to area dependencies
+     *
+     * @return true if the token has been changed
+     */
+    protected boolean updatePtg(Area templateArea, Area dependentResultArea, Ptg ptg) {
+        if (ptg instanceof AreaPtg) {
+            AreaPtg areaPtg = (AreaPtg) ptg;
+            int firstRow = areaPtg.getFirstRow();
+            int lastRow = areaPtg.getLastRow();
+            int firstColumn = areaPtg.getFirstColumn();
+            int lastColumn = areaPtg.getLastColumn();
+            areaDependencyManager.updateAreaPtg(templateArea, dependentResultArea, areaPtg);
+            return firstRow != areaPtg.getFirstRow() || lastRow != areaPtg.getLastRow()
+                    || firstColumn != areaPtg.getFirstColumn() || lastColumn != areaPtg.getLastColumn();
+        } else if (ptg instanceof RefPtg) {
+            RefPtg refPtg = (RefPtg) ptg;
+            int row = refPtg.getRow();
+            int column = refPtg.getColumn();
+            areaDependencyManager.updateRefPtg(templateArea, dependentResultArea, refPtg);
+            return row != refPtg.getRow() || column != refPtg.getColumn();
+        }
+        return false;
+    }
+
     protected String extractStyles(HSSFCell templateCell, HSSFCell resultCell, String templateCellValue, BandData bandData) {
         for (XlsHint hint : hints) {
             XlsHint.CheckResult check = hint.check(templateCellValue);
@@ -776,19 +917,13 @@ public class XLSFormatter extends AbstractFormatter {
         return style;
     }
 
-    /**
-     * Returns EscherAggregate from sheet
-     *
-     * @param sheet - HSSFSheet
-     * @return - EscherAggregate from sheet
-     */
-    protected EscherAggregate getEscherAggregate(HSSFSheet sheet) {
-        EscherAggregate agg = sheetToEscherAggregate.get(sheet.getSheetName());
-        if (agg == null) {
-            agg = sheet.getDrawingEscherAggregate();
-            sheetToEscherAggregate.put(sheet.getSheetName(), agg);
-        }
-        return agg;
+    protected AreaReference getAreaForRange(String rangeName) {
+        AreaReference areaReference = parsedTemplate.getAreaForRangeName(rangeName);
+        return areaReference != null ? areaReference : HSSFRangeHelper.getAreaForRange(templateWorkbook, rangeName);
+    }
+
+    protected HSSFSheet getTemplateSheetForRangeName(String rangeName) {
+        return HSSFRangeHelper.getTemplateSheetForRangeName(templateWorkbook, rangeName);
     }
 
     /**
@@ -798,7 +933,7 @@ public class XLSFormatter extends AbstractFormatter {
      * @param resultSheet   - result sheet
      */
     protected void copyPicturesFromTemplateToResult(HSSFSheet templateSheet, HSSFSheet resultSheet) {
-        List<HSSFClientAnchor> list = getAllAnchors(getEscherAggregate(templateSheet));
+        List<HSSFClientAnchor> list = parsedTemplate.getPictureAnchors(templateWorkbook.getSheetIndex(templateSheet));
 
         int i = 0;
         if (CollectionUtils.isNotEmpty(orderedPicturesId)) {//just a shitty workaround for anchors without pictures
@@ -876,6 +1011,83 @@ public class XLSFormatter extends AbstractFormatter {
         }
     }
 
+    /**
+     * Template data which does not depend on report data.
+     * It is shared between report runs, so its collections are immutable copies.
+     */
+    public static class ParsedTemplate {
+        protected final byte[] resultContent;
+        protected final Map<String, List<SheetRange>> mergeRegionsForRangeNames;
+        protected final List<List<HSSFClientAnchor>> pictureAnchors;
+        protected final List<Integer> orderedPicturesId;
+        protected final List<Short> namedStyles;
+        protected final Map<String, AreaReference> areasForRangeNames;
+
+        protected ParsedTemplate(byte[] resultContent, Map<String, List<SheetRange>> mergeRegionsForRangeNames,
+                                 List<List<HSSFClientAnchor>> pictureAnchors, List<Integer> orderedPicturesId,
+                                 List<Short> namedStyles, Map<String, AreaReference> areasForRangeNames) {
+            ImmutableMap.Builder<String, List<SheetRange>> mergeRegions = ImmutableMap.builder();
+            mergeRegionsForRangeNames.forEach((name, regions) -> mergeRegions.put(name, ImmutableList.copyOf(regions)));
+            ImmutableList.Builder<List<HSSFClientAnchor>> anchors = ImmutableList.builder();
+            pictureAnchors.forEach(sheetAnchors -> anchors.add(ImmutableList.copyOf(sheetAnchors)));
+
+            this.resultContent = resultContent;
+            this.mergeRegionsForRangeNames = mergeRegions.build();
+            this.pictureAnchors = anchors.build();
+            this.orderedPicturesId = ImmutableList.copyOf(orderedPicturesId);
+            this.namedStyles = ImmutableList.copyOf(namedStyles);
+            this.areasForRangeNames = ImmutableSortedMap.copyOf(areasForRangeNames, String.CASE_INSENSITIVE_ORDER);
+        }
+
+        protected ParsedTemplate(byte[] resultContent, ParsedTemplate analysis) {
+            this(resultContent, analysis.mergeRegionsForRangeNames, analysis.pictureAnchors, analysis.orderedPicturesId,
+                    analysis.namedStyles, analysis.areasForRangeNames);
+        }
+
+        /**
+         * @return result workbook without cells and merge regions
+         */
+        public byte[] getResultContent() {
+            return resultContent;
+        }
+
+        public Map<String, List<SheetRange>> getMergeRegionsForRangeNames() {
+            return mergeRegionsForRangeNames;
+        }
+
+        /**
+         * @return copies of picture anchors of the template sheet, so they might be moved
+         */
+        public List<HSSFClientAnchor> getPictureAnchors(int sheetNumber) {
+            List<HSSFClientAnchor> anchors = new ArrayList<>();
+            for (HSSFClientAnchor anchor : pictureAnchors.get(sheetNumber)) {
+                HSSFClientAnchor copy = new HSSFClientAnchor();
+                copy.setDx1(anchor.getDx1());
+                copy.setDx2(anchor.getDx2());
+                copy.setDy1(anchor.getDy1());
+                copy.setDy2(anchor.getDy2());
+                copy.setRow1(anchor.getRow1());
+                copy.setRow2(anchor.getRow2());
+                copy.setCol1(anchor.getCol1());
+                copy.setCol2(anchor.getCol2());
+                anchors.add(copy);
+            }
+            return anchors;
+        }
+
+        public List<Integer> getOrderedPicturesId() {
+            return orderedPicturesId;
+        }
+
+        public List<Short> getNamedStyles() {
+            return namedStyles;
+        }
+
+        public AreaReference getAreaForRangeName(String rangeName) {
+            return areasForRangeNames.get(rangeName);
+        }
+    }
+
     /**
      * Bounds of region [(x,y) : (x1, y1)]
      */
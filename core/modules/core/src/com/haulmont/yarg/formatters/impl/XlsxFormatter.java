@@ -15,16 +15,18 @@
  */
 package com.haulmont.yarg.formatters.impl;
 
+import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.HashBiMap;
 import com.google.common.collect.LinkedHashMultimap;
+import com.google.common.collect.ListMultimap;
 import com.haulmont.yarg.exception.ReportingException;
+import com.haulmont.yarg.exception.ReportingInterruptedException;
 import com.haulmont.yarg.formatters.factory.FormatterFactoryInput;
 import com.haulmont.yarg.formatters.impl.xls.DocumentConverter;
 import com.haulmont.yarg.formatters.impl.xlsx.*;
 import com.haulmont.yarg.formatters.impl.xlsx.hints.XslxHintProcessor;
 import com.haulmont.yarg.structure.BandData;
 import com.haulmont.yarg.structure.BandOrientation;
-import com.haulmont.yarg.structure.BandVisitor;
 import com.haulmont.yarg.structure.ReportOutputType;
 import com.haulmont.yarg.util.docx4j.XmlCopyUtils;
 import com.opencsv.CSVWriter;
@@ -53,20 +55,42 @@ import org.xlsx4j.sml.*;
 
 import javax.xml.bind.Marshaller;
 import javax.xml.bind.Unmarshaller;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
 
 public class XlsxFormatter extends AbstractFormatter {
     private static final String TRUE_AS_STRING = "1";
     private static final String FALSE_AS_STRING = "0";
+    private static final Pattern EMPTY_SHEET_DATA_PATTERN = Pattern.compile("<sheetData\\s*/>");
 
     protected DocumentConverter documentConverter;
     protected Document template;
     protected Document result;
+    protected ParsedTemplate parsedTemplate;
+    protected TemplateCache<ParsedTemplate> templateCache;
+    protected boolean streamingEnabled;
+    protected boolean sharedStringsEnabled;
+    protected ExecutorService sheetExecutor;
+    protected boolean csvDirectEnabled;
+    protected boolean csvDirect;
+    protected Charset csvCharset = Charset.defaultCharset();
+    protected char csvSeparator = ';';
+    protected SharedStringPool sharedStringPool;
 
     protected RangeDependencies rangeDependencies = new RangeDependencies();
     protected BandsForRanges bandsForRanges = new BandsForRanges();
@@ -74,9 +98,27 @@ public class XlsxFormatter extends AbstractFormatter {
 
     protected Set<CellWithBand> innerFormulas = new HashSet<>();
     protected Set<CellWithBand> outerFormulas = new HashSet<>();
+    protected Map<Cell, Set<Range>> formulaRangesForTemplateCells = new IdentityHashMap<>();
+    protected Map<Range, ListMultimap<BandData, Range>> resultsForParentBands = new HashMap<>();
+    protected Map<String, Pattern> cellReferencePatterns = new HashMap<>();
 
     protected Map<String, Range> lastRenderedRangeForBandName = new HashMap<>();
+    /**
+     * The last row occupied by each rendered band together with its children
+     */
+    protected Map<BandData, Integer> lastRowForBand = new IdentityHashMap<>();
+    /**
+     * Names of the rendered child bands for each parent band
+     */
+    protected Map<BandData, Set<String>> renderedChildBandNames = new IdentityHashMap<>();
+    protected Set<String> bandsWithoutRange = new HashSet<>();
     protected Map<Worksheet, Long> lastRowForSheet = new HashMap<>();
+    protected Map<Worksheet, StreamingSheetData> streamingSheets = new LinkedHashMap<>();
+    protected Map<String, Integer> pendingFirstLevelBands = new HashMap<>();
+    protected Map<Row, List<CellWithBand>> pendingInnerFormulas = new IdentityHashMap<>();
+    protected Set<Row> rowsWithOuterFormulas = Collections.newSetFromMap(new IdentityHashMap<>());
+    protected CTCalcChain calculationChain;
+    protected boolean calculationChainLoaded;
     protected XslxHintProcessor hintProcessor = new XslxHintProcessor();
 
     protected BandData previousRangeBandData;
@@ -96,34 +138,108 @@ public class XlsxFormatter extends AbstractFormatter {
         this.documentConverter = documentConverter;
     }
 
+    /**
+     * Sets cache of parsed templates shared between report runs. Templates are parsed for each run if cache is not set.
+     */
+    public void setTemplateCache(TemplateCache<ParsedTemplate> templateCache) {
+        this.templateCache = templateCache;
+    }
+
+    /**
+     * Enables writing of completed rows to temporary files during rendering, so large sheets do not have to be kept
+     * in memory. It is used only for xlsx output of templates without vertical bands, vertically intersecting
+     * ranges and hints, other reports are rendered in memory.
+     * <p>
+     * Rows are written after each first level band instance is rendered, so a single large first level band is kept
+     * in memory as a whole. A row with a formula referencing other bands and all rows below it are kept in memory
+     * until the whole report is rendered.
+     */
+    public void setStreamingEnabled(boolean streamingEnabled) {
+        this.streamingEnabled = streamingEnabled;
+    }
+
+    /**
+     * Enables writing of text values to the shared strings table instead of inline strings, so repeated values are
+     * stored only once. It is not used for csv output.
+     */
+    public void setSharedStringsEnabled(boolean sharedStringsEnabled) {
+        this.sharedStringsEnabled = sharedStringsEnabled;
+    }
+
+    /**
+     * Enables rendering of bands of different sheets in threads of the executor. It is used only when each first level band
+     * and all its children are placed on one sheet, bands of at least two sheets are rendered and the template
+     * does not contain hints. Post-processing (formulas, charts, merge regions etc.) is performed in the calling thread.
+     * The executor might be shared between report runs, it is not shut down by the formatter.
+     */
+    public void setSheetExecutor(ExecutorService sheetExecutor) {
+        this.sheetExecutor = sheetExecutor;
+    }
+
+    /**
+     * Enables writing of csv output directly from bands without building the result workbook.
+     * Named ranges of the template are used only as row layouts, so it is used only for templates with horizontal bands
+     * which are rendered row by row: a child band should start below its parent on the same sheet
+     * and bands with the same name should not be interleaved with other bands. Content inliners are not applied.
+     */
+    public void setCsvDirectEnabled(boolean csvDirectEnabled) {
+        this.csvDirectEnabled = csvDirectEnabled;
+    }
+
+    public void setCsvCharset(Charset csvCharset) {
+        this.csvCharset = csvCharset;
+    }
+
+    public void setCsvSeparator(char csvSeparator) {
+        this.csvSeparator = csvSeparator;
+    }
+
     @Override
     public void renderDocument() {
         init();
 
         validateTemplateContainsNamedRange();
 
+        if (csvDirect) {
+            writeCsvDirectly();
+            return;
+        }
+
         hintProcessor.init(template, result);
         findVerticalDependencies();
 
         result.clearWorkbook();
         result.clearBandDefinedNames(rootBand);
 
-        for (BandData childBand : rootBand.getChildrenList()) {
-            checkThreadInterrupted();
-            writeBand(childBand);
-        }
+        try {
+            initStreaming();
 
-        updateOutlines();
-        updateMergeRegions();
-        updateCharts();
-        updateFormulas();
-        updatePivotTables();
-        updateConditionalFormatting();
-        updateHeaderAndFooter();
-        updateSheetNames();
-        hintProcessor.apply();
+            Map<String, List<BandData>> bandsForSheets = getBandsForParallelSheets();
+            if (bandsForSheets != null) {
+                writeSheetsInParallel(bandsForSheets);
+            } else {
+                for (BandData childBand : rootBand.getChildrenList()) {
+                    checkThreadInterrupted();
+                    writeBand(childBand);
+                    writeCompletedRows(childBand);
+                }
+            }
 
-        saveAndClose();
+            updateOutlines();
+            updateMergeRegions();
+            updateCharts();
+            updateFormulas();
+            updatePivotTables();
+            updateConditionalFormatting();
+            updateHeaderAndFooter();
+            updateSheetNames();
+            hintProcessor.apply();
+            updateSharedStrings();
+
+            saveAndClose();
+        } finally {
+            streamingSheets.values().forEach(StreamingSheetData::close);
+        }
     }
 
     protected void validateTemplateContainsNamedRange() {
@@ -135,7 +251,10 @@ public class XlsxFormatter extends AbstractFormatter {
     protected void saveAndClose() {
         try {
             checkThreadInterrupted();
-            if (ReportOutputType.xlsx.equals(outputType)) {
+            if (ReportOutputType.xlsx.equals(outputType) && !streamingSheets.isEmpty()) {
+                writeStreamingDocument(outputStream);
+                outputStream.flush();
+            } else if (ReportOutputType.xlsx.equals(outputType)) {
                 writeToOutputStream(result.getPackage(), outputStream);
                 outputStream.flush();
             } else if (ReportOutputType.csv.equals(outputType)) {
@@ -177,18 +296,39 @@ public class XlsxFormatter extends AbstractFormatter {
 
     protected void init() {
         try {
-            template = Document.create(SpreadsheetMLPackage.load(reportTemplate.getDocumentContent()));
-            result = Document.create(SpreadsheetMLPackage.load(reportTemplate.getDocumentContent()));
+            byte[] templateContent = IOUtils.toByteArray(reportTemplate.getDocumentContent());
+            parsedTemplate = templateCache != null ?
+                    templateCache.get(reportTemplate, templateContent, this::parseTemplate) :
+                    parseTemplate(templateContent);
+            template = parsedTemplate.getDocument();
+            csvDirect = isCsvDirectSupported();
+            if (csvDirect) {
+                return;
+            }
+            result = Document.create(SpreadsheetMLPackage.load(new ByteArrayInputStream(templateContent)));
             result.getWorkbook().getCalcPr().setCalcMode(STCalcMode.AUTO);
             result.getWorkbook().getCalcPr().setFullCalcOnLoad(true);
             marshaller = XmlCopyUtils.createMarshaller(Context.jcSML);
             unmarshaller = XmlCopyUtils.createUnmarshaller(Context.jcSML);
+            if (sharedStringsEnabled && !ReportOutputType.csv.equals(outputType)) {
+                sharedStringPool = new SharedStringPool(result.getSharedStringsTable());
+            }
         } catch (Exception e) {
             throw wrapWithReportingException(String.format("An error occurred while loading template [%s]", reportTemplate.getDocumentName()), e);
         }
     }
 
+    protected ParsedTemplate parseTemplate(byte[] templateContent) throws Docx4JException {
+        Document templateDocument = Document.create(SpreadsheetMLPackage.load(new ByteArrayInputStream(templateContent)));
+        return new ParsedTemplate(templateDocument, findVerticalDependencies(templateDocument));
+    }
+
     protected void findVerticalDependencies() {
+        rangeVerticalIntersections.putAll(parsedTemplate.getRangeVerticalIntersections());
+    }
+
+    protected LinkedHashMultimap<Range, Range> findVerticalDependencies(Document template) {
+        LinkedHashMultimap<Range, Range> rangeVerticalIntersections = LinkedHashMultimap.create();
         DefinedNames definedNames = template.getWorkbook().getDefinedNames();
         if (definedNames != null) {
             List<CTDefinedName> definedName = definedNames.getDefinedName();
@@ -207,6 +347,290 @@ public class XlsxFormatter extends AbstractFormatter {
                 }
             }
         }
+        return rangeVerticalIntersections;
+    }
+
+    protected void initStreaming() {
+        if (!isStreamingSupported()) {
+            if (streamingEnabled) {
+                log.debug("Template [{}] can not be rendered with streaming, it is rendered in memory", reportTemplate.getDocumentName());
+            }
+            return;
+        }
+
+        for (Document.SheetWrapper sheetWrapper : result.getWorksheets()) {
+            Worksheet worksheet = result.getSheetByName(sheetWrapper.getName());
+            StreamingSheetData sheetData = new StreamingSheetData();
+            sheetData.setParent(worksheet);
+            worksheet.setSheetData(sheetData);
+            streamingSheets.put(worksheet, sheetData);
+        }
+        for (BandData childBand : rootBand.getChildrenList()) {
+            pendingFirstLevelBands.merge(childBand.getName(), 1, Integer::sum);
+        }
+    }
+
+    protected boolean isStreamingSupported() {
+        if (!streamingEnabled || !ReportOutputType.xlsx.equals(outputType) || !rangeVerticalIntersections.isEmpty()) {
+            return false;
+        }
+        return !hasHints() && !rootBand.visit(band -> BandOrientation.VERTICAL == band.getOrientation());
+    }
+
+    protected boolean isCsvDirectSupported() {
+        if (!csvDirectEnabled || !ReportOutputType.csv.equals(outputType)
+                || template.getWorkbook().getDefinedNames() == null
+                || !parsedTemplate.getRangeVerticalIntersections().isEmpty()) {
+            return false;
+        }
+        return !rootBand.visit(band -> {
+            if (BandOrientation.VERTICAL == band.getOrientation()) {
+                return true;
+            }
+            Range range = template.getRangeByName(band.getName());
+            Set<String> renderedNames = new HashSet<>();
+            String previousName = null;
+            for (BandData child : band.getChildrenList()) {
+                if (!child.getName().equals(previousName) && !renderedNames.add(child.getName())) {
+                    return true;
+                }
+                previousName = child.getName();
+
+                Range childRange = template.getRangeByName(child.getName());
+                if (range != null && childRange != null && (!range.getSheet().equals(childRange.getSheet())
+                        || range.getFirstRow() == childRange.getFirstRow())) {
+                    return true;
+                }
+            }
+            return false;
+        });
+    }
+
+    /**
+     * Writes rows of the bands to csv sheet by sheet in the order they would be placed in the result workbook
+     */
+    protected void writeCsvDirectly() {
+        try {
+            CSVWriter writer = createCsvWriter(outputStream);
+            for (Document.SheetWrapper sheet : template.getWorksheets()) {
+                for (BandData childBand : rootBand.getChildrenList()) {
+                    Range range = getBandRange(childBand);
+                    if (range != null && range.getSheet().equals(sheet.getName())) {
+                        writeCsvBand(writer, childBand, range);
+                    }
+                }
+            }
+            writer.close();
+        } catch (IOException e) {
+            throw wrapWithReportingException("An error occurred while saving result report to " + outputType.getId(), e);
+        } finally {
+            IOUtils.closeQuietly(outputStream);
+        }
+    }
+
+    protected void writeCsvBand(CSVWriter writer, BandData band, Range templateRange) {
+        for (int row = templateRange.getFirstRow(); row <= templateRange.getLastRow(); row++) {
+            checkThreadInterrupted();
+            Range oneRowRange = new Range(templateRange.getSheet(),
+                    templateRange.getFirstColumn(), row, templateRange.getLastColumn(), row);
+            Map<CellReference, Cell> templateCells = template.getCellsByRange(oneRowRange);
+
+            String[] values = new String[templateRange.getLastColumn() - templateRange.getFirstColumn() + 1];
+            boolean emptyRow = true;
+            for (Map.Entry<CellReference, Cell> entry : templateCells.entrySet()) {
+                String value = getCsvValue(band, entry.getValue());
+                values[entry.getKey().getColumn() - templateRange.getFirstColumn()] = value;
+                if (!value.isEmpty()) {
+                    emptyRow = false;
+                }
+            }
+            if (!emptyRow) {
+                for (int i = 0; i < values.length; i++) {
+                    if (values[i] == null) {
+                        values[i] = "";
+                    }
+                }
+                writer.writeNext(values);
+            }
+        }
+
+        for (BandData child : band.getChildrenList()) {
+            Range childRange = getBandRange(child);
+            if (childRange != null) {
+                writeCsvBand(writer, child, childRange);
+            }
+        }
+    }
+
+    /**
+     * @return the same value as {@link #updateCell(WorksheetPart, BandData, Cell)} puts into the result cell
+     */
+    protected String getCsvValue(BandData bandData, Cell templateCell) {
+        CellValue cellValue = getCellValue(bandData, templateCell);
+        return cellValue.inlinerAndMatcher != null ? "" : StringUtils.defaultString(cellValue.value);
+    }
+
+    protected boolean hasHints() {
+        for (CTDefinedName definedName : template.getWorkbook().getDefinedNames().getDefinedName()) {
+            if (hintProcessor.isHintDefinedName(definedName.getName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Groups first level bands by sheets for parallel rendering
+     *
+     * @return first level bands for each sheet or null if the report should be rendered in one thread
+     */
+    protected Map<String, List<BandData>> getBandsForParallelSheets() {
+        if (sheetExecutor == null || !streamingSheets.isEmpty() || hasHints()) {
+            return null;
+        }
+
+        Map<String, List<BandData>> bandsForSheets = new LinkedHashMap<>();
+        for (BandData childBand : rootBand.getChildrenList()) {
+            Range range = getBandRange(childBand);
+            if (range != null) {
+                String sheet = range.getSheet();
+                boolean otherSheet = childBand.visit(band -> {
+                    Range bandRange = template.getRangeByName(band.getName());
+                    return bandRange != null && !sheet.equals(bandRange.getSheet());
+                });
+                if (otherSheet) {
+                    return null;
+                }
+                bandsForSheets.computeIfAbsent(sheet, name -> new ArrayList<>()).add(childBand);
+            }
+        }
+        return bandsForSheets.size() > 1 ? bandsForSheets : null;
+    }
+
+    protected void writeSheetsInParallel(Map<String, List<BandData>> bandsForSheets) {
+        List<Future<XlsxFormatter>> sheetRenderers = new ArrayList<>();
+        try {
+            for (List<BandData> bands : bandsForSheets.values()) {
+                XlsxFormatter sheetRenderer = createSheetRenderer();
+                sheetRenderers.add(sheetExecutor.submit(() -> {
+                    for (BandData band : bands) {
+                        sheetRenderer.checkThreadInterrupted();
+                        sheetRenderer.writeBand(band);
+                    }
+                    return sheetRenderer;
+                }));
+            }
+            for (Future<XlsxFormatter> sheetRenderer : sheetRenderers) {
+                mergeSheetRenderer(sheetRenderer.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ReportingInterruptedException("Formatting interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw wrapWithReportingException("An error occurred while rendering sheets", e);
+        } finally {
+            for (Future<XlsxFormatter> sheetRenderer : sheetRenderers) {
+                sheetRenderer.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Creates formatter which renders bands of one sheet into the result document of this formatter
+     */
+    protected XlsxFormatter createSheetRenderer() {
+        XlsxFormatter sheetRenderer = newSheetRenderer(new FormatterFactoryInput("xlsx", rootBand, reportTemplate, outputType, null));
+        sheetRenderer.setDefaultFormatProvider(defaultFormatProvider);
+        sheetRenderer.setScripting(scripting);
+        sheetRenderer.setContentInliners(contentInliners);
+        sheetRenderer.parsedTemplate = parsedTemplate;
+        sheetRenderer.template = template;
+        sheetRenderer.result = result;
+        sheetRenderer.sharedStringPool = sharedStringPool;
+        sheetRenderer.rangeVerticalIntersections = rangeVerticalIntersections;
+        sheetRenderer.marshaller = XmlCopyUtils.createMarshaller(Context.jcSML);
+        sheetRenderer.unmarshaller = XmlCopyUtils.createUnmarshaller(Context.jcSML);
+        return sheetRenderer;
+    }
+
+    /**
+     * Instantiates the class of this formatter, so overridden methods are used for parallel sheets as well.
+     * Subclasses without public constructor accepting {@link FormatterFactoryInput} should override this method.
+     */
+    protected XlsxFormatter newSheetRenderer(FormatterFactoryInput formatterFactoryInput) {
+        try {
+            return getClass().getConstructor(FormatterFactoryInput.class).newInstance(formatterFactoryInput);
+        } catch (ReflectiveOperationException e) {
+            throw wrapWithReportingException("Unable to create sheet renderer " + getClass().getName(), e);
+        }
+    }
+
+    protected void mergeSheetRenderer(XlsxFormatter sheetRenderer) {
+        for (Range templateRange : sheetRenderer.rangeDependencies.templates()) {
+            for (Range resultRange : sheetRenderer.rangeDependencies.resultsForTemplate(templateRange)) {
+                rangeDependencies.addDependency(templateRange, resultRange);
+            }
+        }
+        bandsForRanges.addAll(sheetRenderer.bandsForRanges);
+        lastRenderedRangeForBandName.putAll(sheetRenderer.lastRenderedRangeForBandName);
+        bandsWithoutRange.addAll(sheetRenderer.bandsWithoutRange);
+        lastRowForSheet.putAll(sheetRenderer.lastRowForSheet);
+        sheetRenderer.lastRowForBand.forEach((band, lastRow) -> lastRowForBand.merge(band, lastRow, Math::max));
+        sheetRenderer.renderedChildBandNames.forEach((band, names) ->
+                renderedChildBandNames.computeIfAbsent(band, parent -> new HashSet<>()).addAll(names));
+        innerFormulas.addAll(sheetRenderer.innerFormulas);
+        outerFormulas.addAll(sheetRenderer.outerFormulas);
+    }
+
+    /**
+     * Writes rows which could not be changed by the rest of the report: rows above the places where the next instances
+     * of first level bands will be rendered and above the first row with formula referencing other bands.
+     */
+    protected void writeCompletedRows(BandData renderedBand) {
+        if (streamingSheets.isEmpty()) {
+            return;
+        }
+        pendingFirstLevelBands.computeIfPresent(renderedBand.getName(), (name, count) -> count > 1 ? count - 1 : null);
+
+        Map<String, Integer> firstRequiredRows = new HashMap<>();
+        for (String bandName : pendingFirstLevelBands.keySet()) {
+            Range lastRenderedRange = lastRenderedRangeForBandName.get(bandName);
+            if (lastRenderedRange != null) {
+                int lastRow = getLastRow(bandsForRanges.bandForResultRange(lastRenderedRange));
+                firstRequiredRows.merge(lastRenderedRange.getSheet(), lastRow, Math::min);
+            }
+        }
+
+        for (Map.Entry<Worksheet, StreamingSheetData> entry : streamingSheets.entrySet()) {
+            Integer firstRequiredRow = firstRequiredRows.get(result.getSheetName(entry.getKey()));
+            writeCompletedRows(entry.getValue(), firstRequiredRow != null ? firstRequiredRow : Integer.MAX_VALUE);
+        }
+    }
+
+    protected void writeCompletedRows(StreamingSheetData sheetData, int firstRequiredRow) {
+        List<Row> pendingRows = sheetData.getPendingRows();
+        int rowsToWrite = Math.min(firstRequiredRow - sheetData.getWrittenRowsCount(), pendingRows.size());
+        int count = 0;
+        while (count < rowsToWrite && !rowsWithOuterFormulas.contains(pendingRows.get(count))) {
+            List<CellWithBand> formulas = pendingInnerFormulas.remove(pendingRows.get(count));
+            if (formulas != null) {
+                for (CellWithBand cellWithBand : formulas) {
+                    processInnerFormula(cellWithBand, getCalculationChain(), 0);
+                    innerFormulas.remove(cellWithBand);
+                }
+            }
+            count++;
+        }
+
+        try {
+            sheetData.writeRows(count);
+        } catch (IOException e) {
+            throw wrapWithReportingException("An error occurred while writing rows of the sheet", e);
+        }
     }
 
     protected void updateOutlines() {
@@ -321,6 +745,11 @@ public class XlsxFormatter extends AbstractFormatter {
     }
 
     protected void updateConditionalFormatting() {
+        RangeIndex<Range> templateRanges = new RangeIndex<>();
+        for (Range templateRange : rangeDependencies.templates()) {
+            templateRanges.add(templateRange, templateRange);
+        }
+
         for (Document.SheetWrapper sheetWrapper : result.getWorksheets()) {
             Worksheet worksheet;
             try {
@@ -333,7 +762,7 @@ public class XlsxFormatter extends AbstractFormatter {
                 List<String> references = new ArrayList<>();
                 for (String ref : ctConditionalFormatting.getSqref()) {
                     Range formulaRange = Range.fromRange(sheetWrapper.getName(), ref);
-                    for (Range templateRange : rangeDependencies.templates()) {
+                    for (Range templateRange : templateRanges.findIntersecting(formulaRange)) {
                         if (templateRange.contains(formulaRange)) {
                             List<Range> resultRanges = new ArrayList<>(rangeDependencies.resultsForTemplate(templateRange));
                             for (Range resultRange : resultRanges) {
@@ -359,16 +788,15 @@ public class XlsxFormatter extends AbstractFormatter {
             if (!oldFormula.equals(newFormula)) {
                 cellWithFormula.getF().setValue(newFormula);
             }
-            Row row = (Row) cellWithFormula.getParent();
-            Worksheet worksheet = getWorksheet(row);
-            Set<Range> formulaRanges = Range.fromCellFormula(result.getSheetName(worksheet), cellWithFormula);
-            CellReference formulaCellReference = new CellReference(result.getSheetName(worksheet), cellWithFormula.getR());
+            Set<Range> formulaRanges = getFormulaRanges(cellWithWithBand, !oldFormula.equals(newFormula));
+            CellReference formulaCellReference = new CellReference(getSheetName(cellWithFormula), cellWithFormula.getR());
 
             BandData formulaParentBand = null;
             BandData formulaBand = null;
 
-            for (Range resultRange : rangeDependencies.results()) {
-                if (resultRange.contains(formulaCellReference)) {
+            for (Range templateRange : rangeDependencies.templates()) {
+                Range resultRange = rangeDependencies.resultForTemplateContaining(templateRange, formulaCellReference);
+                if (resultRange != null) {
                     formulaBand = bandsForRanges.bandForResultRange(resultRange);
                     formulaParentBand = formulaBand.getParentBand();
                 }
@@ -376,39 +804,10 @@ public class XlsxFormatter extends AbstractFormatter {
 
             for (Range templateRange : rangeDependencies.templates()) {
                 if (templateRange.containsAny(formulaRanges)) {
-                    List<Range> resultRanges = new ArrayList<>(rangeDependencies.resultsForTemplate(templateRange));
-                    List<Range> newRanges = new ArrayList<>();
-                    for (Range resultRange : resultRanges) {
-                        BandData bandData = bandsForRanges.bandForResultRange(resultRange);
-                        boolean hasSameFormulaBand = false;
-                        BandData nextParent = bandData.getParentBand();
-                        while (nextParent != null) {
-                            hasSameFormulaBand = nextParent.equals(formulaBand);
-                            if (hasSameFormulaBand) {
-                                break;
-                            }
-                            nextParent = nextParent.getParentBand();
-                        }
-                        if (hasSameFormulaBand) {
-                            newRanges.add(resultRange);
-                        }
-                    }
+                    ListMultimap<BandData, Range> resultsForParentBand = getResultsForParentBands(templateRange);
+                    List<Range> newRanges = resultsForParentBand.get(formulaBand);
                     if (newRanges.isEmpty()) {
-                        for (Range resultRange : resultRanges) {
-                            BandData bandData = bandsForRanges.bandForResultRange(resultRange);
-                            boolean hasSameParentFormulaBand = false;
-                            BandData nextParent = bandData.getParentBand();
-                            while (nextParent != null) {
-                                hasSameParentFormulaBand = nextParent.equals(formulaParentBand);
-                                if (hasSameParentFormulaBand) {
-                                    break;
-                                }
-                                nextParent = nextParent.getParentBand();
-                            }
-                            if (hasSameParentFormulaBand) {
-                                newRanges.add(resultRange);
-                            }
-                        }
+                        newRanges = resultsForParentBand.get(formulaParentBand);
                     }
 
                     for (Range formulaRange : formulaRanges) {
@@ -427,6 +826,36 @@ public class XlsxFormatter extends AbstractFormatter {
         }
     }
 
+    /**
+     * Groups result ranges of the template by all parent bands of their bands, keeping the order of results
+     */
+    protected ListMultimap<BandData, Range> getResultsForParentBands(Range templateRange) {
+        return resultsForParentBands.computeIfAbsent(templateRange, range -> {
+            ListMultimap<BandData, Range> resultsForParentBand = ArrayListMultimap.create();
+            for (Range resultRange : rangeDependencies.resultsForTemplate(range)) {
+                BandData bandData = bandsForRanges.bandForResultRange(resultRange);
+                for (BandData parent = bandData.getParentBand(); parent != null; parent = parent.getParentBand()) {
+                    resultsForParentBand.put(parent, resultRange);
+                }
+            }
+            return resultsForParentBand;
+        });
+    }
+
+    /**
+     * Returns ranges of the cell formula, ranges parsed from the template cell are used if the formula has not been changed
+     */
+    protected Set<Range> getFormulaRanges(CellWithBand cellWithBand, boolean formulaChanged) {
+        if (cellWithBand.formulaRanges != null && !formulaChanged) {
+            return cellWithBand.formulaRanges;
+        }
+        return Range.fromCellFormula(getSheetName(cellWithBand.cell), cellWithBand.cell);
+    }
+
+    protected String getSheetName(Cell cell) {
+        return result.getSheetName(getWorksheet((Row) cell.getParent()));
+    }
+
     protected Range calculateFormulaRangeChange(Range formulaRange, Range templateRange, List<Range> resultRanges) {
         Range firstResultRange = getFirst(resultRanges);
         Range lastResultRange = getLast(resultRanges);
@@ -444,30 +873,29 @@ public class XlsxFormatter extends AbstractFormatter {
         int formulaCount = 1;
 
         for (CellWithBand cellWithWithBand : innerFormulas) {
-            Cell cellWithFormula = cellWithWithBand.cell;
-            String oldFormula = cellWithFormula.getF().getValue();
-            String newFormula = insertBandDataToString(cellWithWithBand.bandData, oldFormula);
-            if (!oldFormula.equals(newFormula)) {
-                cellWithFormula.getF().setValue(newFormula);
-            }
-            Row row = (Row) cellWithFormula.getParent();
-            Worksheet worksheet = getWorksheet(row);
-            Set<Range> formulaRanges = Range.fromCellFormula(result.getSheetName(worksheet), cellWithFormula);
-            for (Range templateRange : rangeDependencies.templates()) {
-                if (templateRange.containsAny(formulaRanges)) {
-                    List<Range> resultRanges = rangeDependencies.resultsForTemplate(templateRange);
+            formulaCount = processInnerFormula(cellWithWithBand, calculationChain, formulaCount);
+        }
+        return formulaCount;
+    }
 
-                    CellReference cellReference = new CellReference(result.getSheetName(worksheet), cellWithFormula.getR());
-                    for (Range resultRange : resultRanges) {
-                        if (resultRange.contains(cellReference)) {
-                            Offset offset = calculateOffset(templateRange, resultRange);
+    protected int processInnerFormula(CellWithBand cellWithWithBand, CTCalcChain calculationChain, int formulaCount) {
+        Cell cellWithFormula = cellWithWithBand.cell;
+        String oldFormula = cellWithFormula.getF().getValue();
+        String newFormula = insertBandDataToString(cellWithWithBand.bandData, oldFormula);
+        if (!oldFormula.equals(newFormula)) {
+            cellWithFormula.getF().setValue(newFormula);
+        }
+        Set<Range> formulaRanges = getFormulaRanges(cellWithWithBand, !oldFormula.equals(newFormula));
+        CellReference cellReference = new CellReference(getSheetName(cellWithFormula), cellWithFormula.getR());
+        for (Range templateRange : rangeDependencies.templates()) {
+            if (templateRange.containsAny(formulaRanges)) {
+                Range resultRange = rangeDependencies.resultForTemplateContaining(templateRange, cellReference);
+                if (resultRange != null) {
+                    Offset offset = calculateOffset(templateRange, resultRange);
 
-                            for (Range formulaRange : formulaRanges) {
-                                Range shiftedFormulaRange = formulaRange.copy().shift(offset.downOffset, offset.rightOffset);
-                                updateFormula(cellWithFormula, formulaRange, shiftedFormulaRange, calculationChain, formulaCount++);
-                            }
-                            break;
-                        }
+                    for (Range formulaRange : formulaRanges) {
+                        Range shiftedFormulaRange = formulaRange.copy().shift(offset.downOffset, offset.rightOffset);
+                        updateFormula(cellWithFormula, formulaRange, shiftedFormulaRange, calculationChain, formulaCount++);
                     }
                 }
             }
@@ -475,8 +903,14 @@ public class XlsxFormatter extends AbstractFormatter {
         return formulaCount;
     }
 
+    /**
+     * Returns calculation chain of the result, which is cleared on the first call
+     */
     protected CTCalcChain getCalculationChain() {
-        CTCalcChain calculationChain = null;
+        if (calculationChainLoaded) {
+            return calculationChain;
+        }
+        calculationChainLoaded = true;
         try {
             CalcChain part = (CalcChain) result.getPackage().getParts().get(new PartName("/xl/calcChain.xml"));
             if (part != null) {
@@ -499,8 +933,9 @@ public class XlsxFormatter extends AbstractFormatter {
         formula.setValue(formula.getValue().replace(originalFormulaRange.toRange(), formulaRange.toRange()));
         if (originalFormulaRange.isOneCellRange() && formulaRange.isOneCellRange()) {
             //here we check that there are no alpha-numeric symbols around the single reference
-            String pattern = "(?<!\\w+)" + originalFormulaRange.toFirstCellReference() + "(?!\\w+)";
-            formula.setValue(formula.getValue().replaceAll(pattern, formulaRange.toFirstCellReference()));
+            Pattern pattern = cellReferencePatterns.computeIfAbsent(originalFormulaRange.toFirstCellReference(),
+                    reference -> Pattern.compile("(?<!\\w+)" + reference + "(?!\\w+)"));
+            formula.setValue(pattern.matcher(formula.getValue()).replaceAll(formulaRange.toFirstCellReference()));
         }
 
         if (calculationChain != null) {
@@ -568,19 +1003,24 @@ public class XlsxFormatter extends AbstractFormatter {
                 }
             }
 
+            List<Range> mergeRanges = new ArrayList<>();
+            for (Range mergeRange : parsedTemplate.getMergeRegions().findIntersecting(templateRange)) {
+                if (templateRange.contains(mergeRange) || templateRange.isOneCellRange() && mergeRange.contains(templateRange)) {
+                    mergeRanges.add(mergeRange);
+                }
+            }
+            if (mergeRanges.isEmpty()) {
+                continue;
+            }
+
             for (Range resultRange : rangeDependencies.resultsForTemplate(templateRange)) {
-                if (templateSheet.getMergeCells() != null && templateSheet.getMergeCells().getMergeCell() != null) {
-                    for (CTMergeCell templateMergeRegion : templateSheet.getMergeCells().getMergeCell()) {
-                        Range mergeRange = Range.fromRange(templateRange.getSheet(), templateMergeRegion.getRef());
-                        if (templateRange.contains(mergeRange) || templateRange.isOneCellRange() && mergeRange.contains(templateRange)) {
-                            Offset offset = calculateOffset(templateRange, resultRange);
-                            Range resultMergeRange = mergeRange.copy().shift(offset.downOffset, offset.rightOffset);
-                            CTMergeCell resultMergeRegion = new CTMergeCell();
-                            resultMergeRegion.setRef(resultMergeRange.toRange());
-                            resultMergeRegion.setParent(resultSheet.getMergeCells());
-                            resultSheet.getMergeCells().getMergeCell().add(resultMergeRegion);
-                        }
-                    }
+                Offset offset = calculateOffset(templateRange, resultRange);
+                for (Range mergeRange : mergeRanges) {
+                    Range resultMergeRange = mergeRange.copy().shift(offset.downOffset, offset.rightOffset);
+                    CTMergeCell resultMergeRegion = new CTMergeCell();
+                    resultMergeRegion.setRef(resultMergeRange.toRange());
+                    resultMergeRegion.setParent(resultSheet.getMergeCells());
+                    resultSheet.getMergeCells().getMergeCell().add(resultMergeRegion);
                 }
             }
         }
@@ -644,6 +1084,7 @@ public class XlsxFormatter extends AbstractFormatter {
             rangeDependencies.addDependency(templateRange, resultRange);
             bandsForRanges.add(band, templateRange, resultRange);
             lastRenderedRangeForBandName.put(band.getName(), resultRange);
+            updateLastRows(band, resultRange);
         }
     }
 
@@ -660,11 +1101,10 @@ public class XlsxFormatter extends AbstractFormatter {
         Range lastRenderedRange = getLastRenderedBandForThisLevel(band);
         if (lastRenderedRange != null) {//this band has been already rendered at least once
             BandData lastRenderedBand = bandsForRanges.bandForResultRange(lastRenderedRange);
-            LastRowBandVisitor bandVisitor = new LastRowBandVisitor();
-            lastRenderedBand.visit(bandVisitor);
+            int lastRow = getLastRow(lastRenderedBand);
 
-            if (resultSheetRows.size() > bandVisitor.lastRow) {//get next row
-                firstRow = resultSheetRows.get(bandVisitor.lastRow);
+            if (resultSheetRows.size() > lastRow) {//get next row
+                firstRow = resultSheetRows.get(lastRow);
             }
         } else if (!isFirstLevelBand) {
             firstRow = findNextRowForChildBand(band, templateRange, resultSheetRows);
@@ -711,10 +1151,9 @@ public class XlsxFormatter extends AbstractFormatter {
                     return resultSheetRows.get(resultParentRange.getFirstRow() - 1);
                 }
             } else {
-                LastRowBandVisitor bandVisitor = new LastRowBandVisitor();
-                band.getParentBand().visit(bandVisitor);
-                if (resultSheetRows.size() > bandVisitor.lastRow) {//get next row
-                    return resultSheetRows.get(bandVisitor.lastRow);
+                int lastRow = getLastRow(band.getParentBand());
+                if (resultSheetRows.size() > lastRow) {//get next row
+                    return resultSheetRows.get(lastRow);
                 }
             }
         }
@@ -756,7 +1195,7 @@ public class XlsxFormatter extends AbstractFormatter {
             List<Cell> templateCells = new ArrayList<>(cellsForOneRowRange.values());
             Row templateRow = !templateCells.isEmpty() ?
                     (Row) templateCells.get(0).getParent() :
-                    resultSheet.getSheetData().getRow().get(oneRowRange.getFirstRow() - 1);
+                    getRowForEmptyTemplateRow(resultSheet, oneRowRange);
 
             createFakeTemplateCellsForEmptyOnes(oneRowRange, cellsForOneRowRange, templateCells);
 
@@ -771,6 +1210,17 @@ public class XlsxFormatter extends AbstractFormatter {
         return resultCells;
     }
 
+    protected Row getRowForEmptyTemplateRow(Worksheet resultSheet, Range oneRowRange) {
+        StreamingSheetData sheetData = streamingSheets.get(resultSheet);
+        if (sheetData != null && sheetData.getWrittenRowsCount() >= oneRowRange.getFirstRow()) {
+            Row row = Context.getsmlObjectFactory().createRow();
+            row.setR((long) oneRowRange.getFirstRow());
+            row.setParent(template.getSheetByName(oneRowRange.getSheet()).getSheetData());
+            return row;
+        }
+        return resultSheet.getSheetData().getRow().get(oneRowRange.getFirstRow() - 1);
+    }
+
     /**
      * XLSX document does not store empty cells and it might be an issue for formula calculations and etc.
      * So we need to create fake template cell for each empty cell.
@@ -801,25 +1251,42 @@ public class XlsxFormatter extends AbstractFormatter {
     }
 
     protected Range getLastRenderedBandForThisLevel(BandData band) {
-        List<BandData> sameLevelBands = band.getParentBand().getChildrenByName(band.getName());
-        for (BandData sameLevelBand : sameLevelBands) {
-            Range range = bandsForRanges.resultForBand(sameLevelBand);
-            if (range != null) {
-                return lastRenderedRangeForBandName.get(band.getName());
-            }
+        Set<String> renderedNames = renderedChildBandNames.get(band.getParentBand());
+        if (renderedNames != null && renderedNames.contains(band.getName())) {
+            return lastRenderedRangeForBandName.get(band.getName());
         }
 
         return null;
     }
 
+    /**
+     * Updates the last rows of the band and all its parents and remembers that the band has been rendered on its level
+     */
+    protected void updateLastRows(BandData band, Range resultRange) {
+        renderedChildBandNames.computeIfAbsent(band.getParentBand(), parent -> new HashSet<>()).add(band.getName());
+        for (BandData nextBand = band; nextBand != null; nextBand = nextBand.getParentBand()) {
+            Integer lastRow = lastRowForBand.get(nextBand);
+            if (lastRow != null && lastRow >= resultRange.getLastRow()) {
+                break;
+            }
+            lastRowForBand.put(nextBand, resultRange.getLastRow());
+        }
+    }
+
+    /**
+     * @return the last row occupied by the band and its children, 0 if nothing has been rendered
+     */
+    protected int getLastRow(BandData band) {
+        Integer lastRow = lastRowForBand.get(band);
+        return lastRow != null ? lastRow : 0;
+    }
+
     protected Range getBandRange(BandData band) {
-        CTDefinedName targetRange = template.getDefinedName(band.getName());
-        if (targetRange == null) {
+        Range range = template.getRangeByName(band.getName());
+        if (range == null && bandsWithoutRange.add(band.getName())) {
             log.info("Could not find named range for band {}", band.getName());
-            return null;
         }
-
-        return Range.fromFormula(targetRange.getValue());
+        return range;
     }
 
     protected Row createNewRow(Worksheet resultSheet) {
@@ -839,6 +1306,7 @@ public class XlsxFormatter extends AbstractFormatter {
         List<Cell> resultCells = new ArrayList<>();
 
         Worksheet resultWorksheet = getWorksheet(newRow);
+        WorksheetPart worksheetPart = result.getWorksheetPart(resultWorksheet);
         for (Cell templateCell : templateCells) {
             checkThreadInterrupted();
             Cell newCell = copyCell(templateCell);
@@ -862,32 +1330,18 @@ public class XlsxFormatter extends AbstractFormatter {
             newRow.getC().add(newCell);
             newCell.setParent(newRow);
 
-            WorksheetPart worksheetPart = null;
-            for (Document.SheetWrapper sheetWrapper : result.getWorksheets()) {
-                Worksheet contents;
-                try {
-                    contents = sheetWrapper.getWorksheet().getContents();
-                } catch (Docx4JException e) {
-                    throw new RuntimeException("Unable to get worksheet contents", e);
-                }
-
-                if (contents == resultWorksheet) {
-                    worksheetPart = sheetWrapper.getWorksheet();
-                }
-            }
-
             updateCell(worksheetPart, bandData, newCell);
 
             Col templateColumn = template.getColumnForCell(templateRange.getSheet(), tempRef);
             Col resultColumn = result.getColumnForCell(templateRange.getSheet(), newRef);
 
             if (templateColumn != null && resultColumn == null) {
-                resultColumn = XmlUtils.deepCopy(templateColumn, Context.jcSML);
+                resultColumn = XmlCopyUtils.copyCol(templateColumn);
                 resultColumn.setMin(newRef.getColumn());
                 resultColumn.setMax(newRef.getColumn());
                 resultColumn.setOutlineLevel(templateColumn.getOutlineLevel());
 
-                resultWorksheet.getCols().get(0).getCol().add(resultColumn);
+                result.addColumn(templateRange.getSheet(), resultColumn);
             }
 
             hintProcessor.add(tempRef, templateCell, newCell, bandData);
@@ -909,30 +1363,29 @@ public class XlsxFormatter extends AbstractFormatter {
         SheetData resultSheetData = (SheetData) newRow.getParent();
         Worksheet worksheet = (Worksheet) resultSheetData.getParent();
 
-        for (Document.SheetWrapper sheetWrapper : template.getWorksheets()) {
-            if (sheetWrapper.getWorksheet().getJaxbElement() == worksheet) {
-                return worksheet;
-            }
-        }
-
-        int i = 0;
-        for (Document.SheetWrapper sheetWrapper : result.getWorksheets()) {
-            if (sheetWrapper.getWorksheet().getJaxbElement() == worksheet) {
-                break;
-            }
-            i++;
+        if (template.getWorksheetIndex(worksheet) >= 0) {
+            return worksheet;
         }
 
+        int i = result.getWorksheetIndex(worksheet);
         return template.getWorksheets().get(i).getWorksheet().getJaxbElement();
     }
 
     protected void addFormulaForPostProcessing(Range templateRange, BandData bandData, Row newRow, Cell templateCell, Cell newCell) {
         Worksheet worksheet = getWorksheet(newRow);
-        Set<Range> formulaRanges = Range.fromCellFormula(result.getSheetName(worksheet), templateCell);
+        Set<Range> formulaRanges = formulaRangesForTemplateCells.computeIfAbsent(templateCell,
+                cell -> Range.fromCellFormula(result.getSheetName(worksheet), cell));
         if (templateRange.containsAny(formulaRanges)) {
-            innerFormulas.add(new CellWithBand(bandData, newCell));
+            CellWithBand cellWithBand = new CellWithBand(bandData, newCell, formulaRanges);
+            innerFormulas.add(cellWithBand);
+            if (!streamingSheets.isEmpty()) {
+                pendingInnerFormulas.computeIfAbsent(newRow, row -> new ArrayList<>()).add(cellWithBand);
+            }
         } else {
-            outerFormulas.add(new CellWithBand(bandData, newCell));
+            outerFormulas.add(new CellWithBand(bandData, newCell, formulaRanges));
+            if (!streamingSheets.isEmpty()) {
+                rowsWithOuterFormulas.add(newRow);
+            }
         }
     }
 
@@ -944,7 +1397,7 @@ public class XlsxFormatter extends AbstractFormatter {
             CTPageBreak resultWorksheetRowBreaks = resultWorksheet.getRowBreaks();
             for (CTBreak templateBreak : rowBreaks.getBrk()) {
                 if (templateRow.getR().equals(templateBreak.getId())) {
-                    CTBreak newBreak = XmlUtils.deepCopy(templateBreak, Context.jcSML);
+                    CTBreak newBreak = XmlCopyUtils.copyBreak(templateBreak);
                     newBreak.setId(newRow.getR());
                     resultWorksheetRowBreaks.getBrk().add(newBreak);
                 }
@@ -959,53 +1412,70 @@ public class XlsxFormatter extends AbstractFormatter {
     }
 
     protected void updateCell(WorksheetPart worksheetPart, BandData bandData, Cell newCell) {
-        String cellValue = template.getCellValue(newCell);
+        CellValue cellValue = getCellValue(bandData, newCell);
 
+        InlinerAndMatcher inlinerAndMatcher = cellValue.inlinerAndMatcher;
+        if (inlinerAndMatcher != null) {
+            //package parts might be added by inliners of several sheets in parallel
+            synchronized (result) {
+                inlinerAndMatcher.contentInliner.inlineToXlsx(result.getPackage(), worksheetPart, newCell, cellValue.inlinedValue, inlinerAndMatcher.matcher);
+            }
+        } else if (cellValue.type == STCellType.STR) {
+            setStringValue(newCell, cellValue.value);
+        } else {
+            if (cellValue.type != null) {
+                newCell.setT(cellValue.type);
+            }
+            newCell.setV(cellValue.value);
+        }
+    }
+
+    /**
+     * Calculates the value of a cell copied from the template, it is shared by rendering to a sheet and to csv.
+     */
+    protected CellValue getCellValue(BandData bandData, Cell templateCell) {
+        String cellValue = template.getCellValue(templateCell);
         if (cellValue == null) {
-            newCell.setV("");
-            return;
+            return new CellValue("", null);
         }
 
-        if (UNIVERSAL_ALIAS_PATTERN.matcher(cellValue).matches()) {
-            String parameterName = unwrapParameterName(cellValue);
-            String fullParameterName = bandData.getName() + "." + parameterName;
+        AliasTemplate aliasTemplate = getAliasTemplate(cellValue);
+        List<AliasTemplate.Segment> segments = aliasTemplate.getSegments();
+        if (segments.size() == 1 && segments.get(0).isAlias()) {
+            String parameterName = segments.get(0).getParameterName();
             Object value = bandData.getData().get(parameterName);
-
             if (value == null) {
-                newCell.setV("");
-                return;
-            }
-
-            String formatString = getFormatString(parameterName, fullParameterName);
-            InlinerAndMatcher inlinerAndMatcher = getContentInlinerForFormat(formatString);
-            if (inlinerAndMatcher != null) {
-                inlinerAndMatcher.contentInliner.inlineToXlsx(result.getPackage(), worksheetPart, newCell, value, inlinerAndMatcher.matcher);
-                return;
+                return new CellValue("", null);
             }
 
-            if (formatString != null) {
-                newCell.setT(STCellType.STR);
-                newCell.setV(formatValue(value, parameterName, fullParameterName));
+            FieldFormat fieldFormat = getFieldFormat(bandData.getName(), parameterName);
+            if (fieldFormat.inlinerAndMatcher != null) {
+                return new CellValue(fieldFormat.inlinerAndMatcher, value);
+            } else if (fieldFormat.formatString != null) {
+                return new CellValue(formatValue(value, fieldFormat, null), STCellType.STR);
             } else if (value instanceof Boolean) {
-                newCell.setT(STCellType.B);
-                newCell.setV((boolean) value ? TRUE_AS_STRING : FALSE_AS_STRING);
+                return new CellValue((boolean) value ? TRUE_AS_STRING : FALSE_AS_STRING, STCellType.B);
             } else if (value instanceof Number) {
-                newCell.setT(STCellType.N);
-                newCell.setV(String.valueOf(value));
+                return new CellValue(String.valueOf(value), STCellType.N);
             } else if (value instanceof Date) {
-                newCell.setT(STCellType.N);
-                newCell.setV(String.valueOf(HSSFDateUtil.getExcelDate((Date) value)));
+                return new CellValue(String.valueOf(HSSFDateUtil.getExcelDate((Date) value)), STCellType.N);
             } else {
-                newCell.setT(STCellType.STR);
-                newCell.setV(formatValue(value, parameterName, fullParameterName));
+                return new CellValue(formatValue(value, fieldFormat, null), STCellType.STR);
             }
-        } else {
-            String value = insertBandDataToString(bandData, cellValue);
-            newCell.setV(value);
+        }
 
-            if (newCell.getT() == STCellType.S) {
-                newCell.setT(STCellType.STR);
-            }
+        String value = aliasTemplate.hasAliases() ? insertBandDataToString(bandData, cellValue) : cellValue;
+        boolean stringCell = templateCell.getT() == STCellType.S || templateCell.getT() == STCellType.STR;
+        return new CellValue(value, stringCell ? STCellType.STR : null);
+    }
+
+    protected void setStringValue(Cell cell, String value) {
+        if (sharedStringPool != null && cell.getF() == null && StringUtils.isNotEmpty(value)) {
+            cell.setT(STCellType.S);
+            cell.setV(String.valueOf(sharedStringPool.add(value)));
+        } else {
+            cell.setT(STCellType.STR);
+            cell.setV(value);
         }
     }
 
@@ -1026,8 +1496,7 @@ public class XlsxFormatter extends AbstractFormatter {
     }
 
     protected void saveXlsxAsCsv(Document document, OutputStream outputStream) throws IOException, Docx4JException {
-        CSVWriter writer = new CSVWriter(new OutputStreamWriter(outputStream), ';', CSVWriter.DEFAULT_QUOTE_CHARACTER,
-                CSVWriter.DEFAULT_ESCAPE_CHARACTER, CSVWriter.DEFAULT_LINE_END);
+        CSVWriter writer = createCsvWriter(outputStream);
 
         for (Document.SheetWrapper sheetWrapper : document.getWorksheets()) {
             Worksheet worksheet = sheetWrapper.getWorksheet().getContents();
@@ -1052,11 +1521,65 @@ public class XlsxFormatter extends AbstractFormatter {
         writer.close();
     }
 
+    protected CSVWriter createCsvWriter(OutputStream outputStream) {
+        return new CSVWriter(new BufferedWriter(new OutputStreamWriter(outputStream, csvCharset)), csvSeparator,
+                CSVWriter.DEFAULT_QUOTE_CHARACTER, CSVWriter.DEFAULT_ESCAPE_CHARACTER, CSVWriter.DEFAULT_LINE_END);
+    }
+
     protected void writeToOutputStream(SpreadsheetMLPackage mlPackage, OutputStream outputStream) throws Docx4JException {
         Save save = new Save(mlPackage);
         save.save(outputStream);
     }
 
+    /**
+     * Saves the package with empty sheet data of streamed sheets and puts the written rows into their worksheet xml
+     */
+    protected void writeStreamingDocument(OutputStream outputStream) throws Docx4JException, IOException {
+        Map<String, StreamingSheetData> sheetDataForEntries = new HashMap<>();
+        for (Map.Entry<Worksheet, StreamingSheetData> entry : streamingSheets.entrySet()) {
+            Worksheet worksheet = entry.getKey();
+            SheetData emptySheetData = Context.getsmlObjectFactory().createSheetData();
+            emptySheetData.setParent(worksheet);
+            worksheet.setSheetData(emptySheetData);
+            sheetDataForEntries.put(result.getWorksheetPart(worksheet).getPartName().getName().substring(1), entry.getValue());
+        }
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        writeToOutputStream(result.getPackage(), bos);
+
+        ZipOutputStream zipOutputStream = new ZipOutputStream(outputStream);
+        try (ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(bos.toByteArray()))) {
+            ZipEntry zipEntry;
+            while ((zipEntry = zipInputStream.getNextEntry()) != null) {
+                checkThreadInterrupted();
+                zipOutputStream.putNextEntry(new ZipEntry(zipEntry.getName()));
+                StreamingSheetData sheetData = sheetDataForEntries.get(zipEntry.getName());
+                if (sheetData != null) {
+                    String worksheetXml = new String(IOUtils.toByteArray(zipInputStream), StandardCharsets.UTF_8);
+                    Matcher matcher = EMPTY_SHEET_DATA_PATTERN.matcher(worksheetXml);
+                    if (!matcher.find()) {
+                        throw new IOException("Unable to find sheet data in " + zipEntry.getName());
+                    }
+                    zipOutputStream.write(worksheetXml.substring(0, matcher.start()).getBytes(StandardCharsets.UTF_8));
+                    zipOutputStream.write("<sheetData>".getBytes(StandardCharsets.UTF_8));
+                    sheetData.transferTo(zipOutputStream);
+                    zipOutputStream.write("</sheetData>".getBytes(StandardCharsets.UTF_8));
+                    zipOutputStream.write(worksheetXml.substring(matcher.end()).getBytes(StandardCharsets.UTF_8));
+                } else {
+                    IOUtils.copy(zipInputStream, zipOutputStream);
+                }
+                zipOutputStream.closeEntry();
+            }
+        }
+        zipOutputStream.finish();
+    }
+
+    protected void updateSharedStrings() {
+        if (sharedStringPool != null) {
+            sharedStringPool.updateCounts();
+        }
+    }
+
     protected void updateHeaderAndFooter() {
         for (Document.SheetWrapper sheetWrapper : result.getWorksheets()) {
             Worksheet worksheet;
@@ -1089,30 +1612,52 @@ public class XlsxFormatter extends AbstractFormatter {
     }
 
     protected String insertBandDataToString(String resultStr) {
-        List<String> parametersToInsert = new ArrayList<>();
-        Matcher matcher = UNIVERSAL_ALIAS_PATTERN.matcher(resultStr);
-        while (matcher.find()) {
-            parametersToInsert.add(unwrapParameterName(matcher.group()));
-        }
-        for (String parameterName : parametersToInsert) {
+        return getAliasTemplate(resultStr).render(alias -> {
+            String parameterName = alias.getParameterName();
             BandPathAndParameterName bandPathAndParameterName = separateBandNameAndParameterName(parameterName);
             BandData bandData = findBandByPath(bandPathAndParameterName.getBandPath());
             Object value = bandData.getData().get(bandPathAndParameterName.getParameterName());
             String fullParameterName = bandData.getName() + "." + parameterName;
-            String valueStr = formatValue(value, parameterName, fullParameterName);
-            resultStr = inlineParameterValue(resultStr, parameterName, valueStr);
-        }
-        return resultStr;
+            return formatValue(value, parameterName, fullParameterName);
+        });
     }
 
     protected static class CellWithBand {
         protected BandData bandData;
         protected Cell cell;
+        protected Set<Range> formulaRanges;
 
         public CellWithBand(BandData bandData, Cell cell) {
             this.bandData = bandData;
             this.cell = cell;
         }
+
+        public CellWithBand(BandData bandData, Cell cell, Set<Range> formulaRanges) {
+            this.bandData = bandData;
+            this.cell = cell;
+            this.formulaRanges = formulaRanges;
+        }
+    }
+
+    /**
+     * Value of a result cell. String values have {@link STCellType#STR} type and might be put into the shared strings
+     * table, null type means the type of the template cell is kept.
+     */
+    protected static class CellValue {
+        protected String value;
+        protected STCellType type;
+        protected InlinerAndMatcher inlinerAndMatcher;
+        protected Object inlinedValue;
+
+        public CellValue(String value, STCellType type) {
+            this.value = value;
+            this.type = type;
+        }
+
+        public CellValue(InlinerAndMatcher inlinerAndMatcher, Object inlinedValue) {
+            this.inlinerAndMatcher = inlinerAndMatcher;
+            this.inlinedValue = inlinedValue;
+        }
     }
 
     protected static class Offset {
@@ -1124,17 +1669,4 @@ public class XlsxFormatter extends AbstractFormatter {
             this.rightOffset = rightOffset;
         }
     }
-
-    protected class LastRowBandVisitor implements BandVisitor {
-        private int lastRow = 0;
-
-        @Override
-        public boolean visit(BandData band) {
-            Range range = bandsForRanges.resultForBand(band);
-            if (range != null && range.getLastRow() > lastRow) {
-                lastRow = range.getLastRow();
-            }
-            return false;
-        }
-    }
 }
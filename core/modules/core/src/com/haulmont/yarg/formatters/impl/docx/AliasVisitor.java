@@ -22,6 +22,7 @@ import org.docx4j.TraversalUtil;
 import org.docx4j.XmlUtils;
 import org.docx4j.wml.ContentAccessor;
 import org.docx4j.wml.P;
+import org.docx4j.wml.R;
 import org.docx4j.wml.SdtBlock;
 import org.docx4j.wml.Text;
 import org.jvnet.jaxb2_commons.ppp.Child;
@@ -31,14 +32,26 @@ import java.util.Set;
 
 public abstract class AliasVisitor extends TraversalUtil.CallbackImpl {
     protected DocxFormatterDelegate docxFormatter;
+    protected boolean mergeTexts = true;
 
     public AliasVisitor(DocxFormatterDelegate docxFormatter) {
         this.docxFormatter = docxFormatter;
     }
 
+    /**
+     * @param mergeTexts false if aliases split between several runs have already been merged (e.g. in a precompiled template),
+     *                   so only texts containing aliases should be handled
+     */
+    public AliasVisitor(DocxFormatterDelegate docxFormatter, boolean mergeTexts) {
+        this.docxFormatter = docxFormatter;
+        this.mergeTexts = mergeTexts;
+    }
+
     @Override
     public List<Object> apply(Object o) {
-        if (o instanceof P || o instanceof P.Hyperlink) {
+        if ((o instanceof P || o instanceof P.Hyperlink) && !mergeTexts) {
+            handleMergedTexts((ContentAccessor) o);
+        } else if (o instanceof P || o instanceof P.Hyperlink) {
             String paragraphText = docxFormatter.getElementText(o);
 
             if (AbstractFormatter.UNIVERSAL_ALIAS_PATTERN.matcher(paragraphText).find()) {
@@ -52,6 +65,22 @@ public abstract class AliasVisitor extends TraversalUtil.CallbackImpl {
         return null;
     }
 
+    protected void handleMergedTexts(ContentAccessor paragraph) {
+        for (Object paragraphContentObject : paragraph.getContent()) {
+            if (paragraphContentObject instanceof R) {
+                for (Object runContentObject : ((R) paragraphContentObject).getContent()) {
+                    Object unwrappedRunContentObject = XmlUtils.unwrap(runContentObject);
+                    if (unwrappedRunContentObject instanceof Text) {
+                        Text text = (Text) unwrappedRunContentObject;
+                        if (text.getValue() != null && AbstractFormatter.UNIVERSAL_ALIAS_PATTERN.matcher(text.getValue()).find()) {
+                            handle(text);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
     protected abstract void handle(Text text);
 
     public void walkJAXBElements(Object parent) {
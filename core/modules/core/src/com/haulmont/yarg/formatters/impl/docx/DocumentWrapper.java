@@ -16,15 +16,18 @@
 
 package com.haulmont.yarg.formatters.impl.docx;
 
+import com.haulmont.yarg.formatters.impl.DocxFormatter;
 import com.haulmont.yarg.formatters.impl.DocxFormatterDelegate;
 import org.docx4j.TraversalUtil;
 import org.docx4j.model.structure.HeaderFooterPolicy;
 import org.docx4j.model.structure.SectionWrapper;
 import org.docx4j.openpackaging.packages.WordprocessingMLPackage;
+import org.docx4j.openpackaging.parts.Part;
+import org.docx4j.openpackaging.parts.PartName;
 import org.docx4j.openpackaging.parts.WordprocessingML.MainDocumentPart;
+import org.docx4j.wml.SdtBlock;
 
-import java.util.List;
-import java.util.Set;
+import java.util.*;
 
 public class DocumentWrapper {
     protected DocxFormatterDelegate docxFormatter;
@@ -32,18 +35,68 @@ public class DocumentWrapper {
     protected MainDocumentPart mainDocumentPart;
     protected Set<TableManager> tables;
     protected Set<TextWrapper> texts;
+    protected boolean containsStructuredDocumentTags;
+    protected DocxFormatter.ParsedTemplate parsedTemplate;
 
     public DocumentWrapper(DocxFormatterDelegate docxFormatter, WordprocessingMLPackage wordprocessingMLPackage) {
+        this(docxFormatter, wordprocessingMLPackage, null);
+    }
+
+    /**
+     * @param parsedTemplate precompiled template the package has been loaded from, null if the package is loaded
+     *                       from the original template
+     */
+    public DocumentWrapper(DocxFormatterDelegate docxFormatter, WordprocessingMLPackage wordprocessingMLPackage,
+                           DocxFormatter.ParsedTemplate parsedTemplate) {
         this.docxFormatter = docxFormatter;
         this.wordprocessingMLPackage = wordprocessingMLPackage;
         this.mainDocumentPart = wordprocessingMLPackage.getMainDocumentPart();
+        this.parsedTemplate = parsedTemplate;
         collectData();
     }
 
+    /**
+     * Merges texts of aliases split between several runs in the main document part, headers and footers,
+     * so the package might be saved as a precompiled template. Band name declarations of tables are not changed.
+     *
+     * @return names of header and footer parts containing aliases
+     */
+    public static Set<PartName> mergeAliases(DocxFormatterDelegate docxFormatter, WordprocessingMLPackage wordprocessingMLPackage) {
+        new TraversalUtil(wordprocessingMLPackage.getMainDocumentPart(), new TextVisitor(docxFormatter));
+        Set<PartName> partNames = new LinkedHashSet<>();
+        for (Part part : getHeadersAndFooters(wordprocessingMLPackage)) {
+            TextVisitor collectAliasesCallback = new TextVisitor(docxFormatter);
+            new TraversalUtil(part, collectAliasesCallback);
+            if (!collectAliasesCallback.textWrappers.isEmpty()) {
+                partNames.add(part.getPartName());
+            }
+        }
+        return partNames;
+    }
+
+    protected static List<Part> getHeadersAndFooters(WordprocessingMLPackage wordprocessingMLPackage) {
+        List<Part> parts = new ArrayList<>();
+        List<SectionWrapper> sectionWrappers = wordprocessingMLPackage.getDocumentModel().getSections();
+        for (SectionWrapper sw : sectionWrappers) {
+            HeaderFooterPolicy hfp = sw.getHeaderFooterPolicy();
+            for (Part part : Arrays.asList(hfp.getFirstHeader(), hfp.getDefaultHeader(), hfp.getEvenHeader(),
+                    hfp.getFirstFooter(), hfp.getDefaultFooter(), hfp.getEvenFooter())) {
+                if (part != null) {
+                    parts.add(part);
+                }
+            }
+        }
+        return parts;
+    }
+
+    protected TextVisitor createTextVisitor() {
+        return new TextVisitor(docxFormatter, parsedTemplate == null);
+    }
+
     protected void collectDataFromObjects(Object... objects) {
         for (Object object : objects) {
             if (object != null) {
-                TextVisitor collectAliasesCallback = new TextVisitor(docxFormatter);
+                TextVisitor collectAliasesCallback = createTextVisitor();
                 new TraversalUtil(object, collectAliasesCallback);
                 texts.addAll(collectAliasesCallback.textWrappers);
             }
@@ -51,21 +104,45 @@ public class DocumentWrapper {
     }
 
     protected void collectData() {
-        collectTables();
-        collectTexts();
+        collectTablesAndTexts();
         collectHeadersAndFooters();
     }
 
+    /**
+     * Collects tables and texts of the main document part in one traversal.
+     * Each element is passed to the table collector first, so band name declarations are removed from
+     * the first rows of tables before their texts are merged, as when tables are collected separately.
+     */
+    protected void collectTablesAndTexts() {
+        TextVisitor collectAliasesCallback = createTextVisitor();
+        TableCollector collectTablesCallback = new TableCollector(docxFormatter) {
+            @Override
+            public List<Object> apply(Object object) {
+                super.apply(object);
+                collectAliasesCallback.apply(object);
+                if (object instanceof SdtBlock) {
+                    containsStructuredDocumentTags = true;
+                }
+                return null;
+            }
+        };
+        new TraversalUtil(mainDocumentPart, collectTablesCallback);
+        tables = collectTablesCallback.tableManagers;
+        texts = collectAliasesCallback.textWrappers;
+    }
+
     protected void collectHeadersAndFooters() {//collect data from headers
-        List<SectionWrapper> sectionWrappers = wordprocessingMLPackage.getDocumentModel().getSections();
-        for (SectionWrapper sw : sectionWrappers) {
-            HeaderFooterPolicy hfp = sw.getHeaderFooterPolicy();
-            collectDataFromObjects(hfp.getFirstHeader(), hfp.getDefaultHeader(), hfp.getEvenHeader(), hfp.getFirstFooter(), hfp.getDefaultFooter(), hfp.getEvenFooter());
+        if (parsedTemplate != null) {
+            for (PartName partName : parsedTemplate.getHeaderAndFooterPartNames()) {
+                collectDataFromObjects(wordprocessingMLPackage.getParts().get(partName));
+            }
+            return;
         }
+        collectDataFromObjects(getHeadersAndFooters(wordprocessingMLPackage).toArray());
     }
 
     protected void collectTexts() {
-        TextVisitor collectAliasesCallback = new TextVisitor(docxFormatter);
+        TextVisitor collectAliasesCallback = createTextVisitor();
         new TraversalUtil(mainDocumentPart, collectAliasesCallback);
         texts = collectAliasesCallback.textWrappers;
     }
@@ -83,4 +160,11 @@ public class DocumentWrapper {
     public Set<TextWrapper> getTexts() {
         return texts;
     }
+
+    /**
+     * @return true if the main document part contains structured document tags (e.g. table of contents)
+     */
+    public boolean containsStructuredDocumentTags() {
+        return containsStructuredDocumentTags;
+    }
 }
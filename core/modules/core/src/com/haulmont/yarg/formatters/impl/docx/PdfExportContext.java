@@ -0,0 +1,131 @@
+/*
+ * Copyright 2013 Haulmont
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.haulmont.yarg.formatters.impl.docx;
+
+import org.apache.fop.apps.FopConfParser;
+import org.apache.fop.apps.FopFactory;
+import org.docx4j.Docx4J;
+import org.docx4j.convert.out.FOSettings;
+import org.docx4j.fonts.IdentityPlusMapper;
+import org.docx4j.fonts.Mapper;
+import org.docx4j.fonts.fop.util.FopConfigUtil;
+import org.docx4j.openpackaging.exceptions.Docx4JException;
+import org.docx4j.openpackaging.packages.WordprocessingMLPackage;
+
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Converts docx documents to PDF with docx4j and Apache FOP without office integration.
+ * FOP factories are created once for each FOP configuration (which depends on the fonts used by a document)
+ * and reused between report runs, the font mapper is shared as well.
+ * The context is thread-safe and is supposed to be shared between formatters.
+ */
+public class PdfExportContext {
+    public static final int DEFAULT_MAX_SIZE = 20;
+
+    protected static final String FOP_FACTORY_SETTING = "fopFactory";
+    protected static final String FOP_CONFIGURATION_BASE_URI = "http://dummy.domain";
+
+    protected final Map<String, FopFactory> fopFactories;
+    protected final Mapper fontMapper;
+
+    public PdfExportContext() {
+        this(new IdentityPlusMapper(), DEFAULT_MAX_SIZE);
+    }
+
+    public PdfExportContext(Mapper fontMapper, int maxSize) {
+        this.fontMapper = fontMapper;
+        this.fopFactories = new LinkedHashMap<String, FopFactory>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, FopFactory> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    public Mapper getFontMapper() {
+        return fontMapper;
+    }
+
+    /**
+     * Writes the document to the stream as PDF
+     */
+    public void toPdf(WordprocessingMLPackage wordprocessingMLPackage, OutputStream outputStream) throws Docx4JException {
+        try {
+            wordprocessingMLPackage.setFontMapper(fontMapper);
+        } catch (Exception e) {
+            throw new Docx4JException("Unable to set up fonts of the document", e);
+        }
+        String configuration = FopConfigUtil.createDefaultConfiguration(fontMapper,
+                wordprocessingMLPackage.getMainDocumentPart().fontsInUse());
+
+        FOSettings foSettings = Docx4J.createFOSettings();
+        foSettings.setOpcPackage(wordprocessingMLPackage);
+        foSettings.setApacheFopMime(FOSettings.MIME_PDF);
+        foSettings.setApacheFopConfiguration(configuration);
+        foSettings.getSettings().put(FOP_FACTORY_SETTING, getFopFactory(configuration));
+        Docx4J.toFO(foSettings, outputStream, Docx4J.FLAG_NONE);
+    }
+
+    public int size() {
+        synchronized (fopFactories) {
+            return fopFactories.size();
+        }
+    }
+
+    public void clear() {
+        synchronized (fopFactories) {
+            fopFactories.clear();
+        }
+    }
+
+    /**
+     * Returns cached FOP factory for the configuration or creates and caches it
+     */
+    protected FopFactory getFopFactory(String configuration) throws Docx4JException {
+        FopFactory fopFactory;
+        synchronized (fopFactories) {
+            fopFactory = fopFactories.get(configuration);
+        }
+        if (fopFactory == null) {
+            fopFactory = createFopFactory(configuration);
+            synchronized (fopFactories) {
+                FopFactory existing = fopFactories.putIfAbsent(configuration, fopFactory);
+                if (existing != null) {
+                    fopFactory = existing;
+                }
+            }
+        }
+        return fopFactory;
+    }
+
+    protected FopFactory createFopFactory(String configuration) throws Docx4JException {
+        try {
+            FopConfParser parser = new FopConfParser(
+                    new ByteArrayInputStream(configuration.getBytes(StandardCharsets.UTF_8)),
+                    new URI(FOP_CONFIGURATION_BASE_URI));
+            return parser.getFopFactoryBuilder().build();
+        } catch (Exception e) {
+            throw new Docx4JException("Unable to create FOP factory", e);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2013 Haulmont
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.haulmont.yarg.formatters.impl.docx;
+
+import com.haulmont.yarg.util.docx4j.XmlFragmentWriter;
+import org.docx4j.jaxb.Context;
+import org.docx4j.jaxb.NamespacePrefixMapperUtils;
+import org.docx4j.wml.Tr;
+import org.xml.sax.Attributes;
+
+import javax.xml.XMLConstants;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Rows of a table which are marshalled to a temporary file as soon as they are filled.
+ * The table keeps only a placeholder row (see {@link #createPlaceholder()}), which should be replaced
+ * with the written rows in the document xml on save (see {@link #transferTo(OutputStream)}).
+ * Namespaces declared by the rows are collected, they should be declared by the document element.
+ */
+public class StreamingTableRows {
+    protected final String marker;
+    protected final Map<String, String> namespaces = new LinkedHashMap<>();
+    protected int writtenRowsCount;
+
+    protected File file;
+    protected Writer writer;
+    protected Marshaller marshaller;
+    protected RowWriter rowWriter;
+
+    public StreamingTableRows(String marker) {
+        this.marker = marker;
+    }
+
+    /**
+     * @return empty row to put into the table instead of the streamed rows
+     */
+    public Tr createPlaceholder() {
+        Tr placeholder = new Tr();
+        placeholder.setRsidTr(marker);
+        return placeholder;
+    }
+
+    /**
+     * @return pattern of the placeholder row in the document xml
+     */
+    public Pattern getPlaceholderPattern() {
+        return Pattern.compile("<w:tr\\b[^>]*\\bw:rsidTr=\"" + Pattern.quote(marker) + "\"[^>]*?(/>|>\\s*</w:tr>)");
+    }
+
+    /**
+     * @return namespaces used by the written rows, keyed by prefix
+     */
+    public Map<String, String> getNamespaces() {
+        return namespaces;
+    }
+
+    public int getWrittenRowsCount() {
+        return writtenRowsCount;
+    }
+
+    public void writeRow(Tr row) throws IOException {
+        if (writer == null) {
+            file = File.createTempFile("yarg-table", ".xml");
+            file.deleteOnExit();
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8));
+            marshaller = createMarshaller();
+            rowWriter = new RowWriter(writer);
+        }
+
+        try {
+            marshaller.marshal(row, rowWriter);
+        } catch (JAXBException e) {
+            throw new IOException("Unable to write table row", e);
+        }
+        writtenRowsCount++;
+    }
+
+    /**
+     * Copies xml of all written rows to the stream
+     */
+    public void transferTo(OutputStream outputStream) throws IOException {
+        if (writer != null) {
+            writer.flush();
+            Files.copy(file.toPath(), outputStream);
+        }
+    }
+
+    /**
+     * Releases the temporary file
+     */
+    public void close() {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                //do nothing
+            }
+            writer = null;
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+        }
+    }
+
+    protected Marshaller createMarshaller() {
+        try {
+            Marshaller marshaller = Context.jc.createMarshaller();
+            marshaller.setProperty(Marshaller.JAXB_FRAGMENT, true);
+            NamespacePrefixMapperUtils.setProperty(marshaller, NamespacePrefixMapperUtils.getPrefixMapper());
+            return marshaller;
+        } catch (JAXBException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Writes marshalled rows with prefixed names. JAXB declares all known namespaces for each fragment,
+     * the declarations are collected to be written by the document element instead.
+     */
+    protected class RowWriter extends XmlFragmentWriter {
+        protected String defaultNamespace;
+
+        protected RowWriter(Writer writer) {
+            super(writer);
+        }
+
+        @Override
+        public void startPrefixMapping(String prefix, String uri) {
+            if (prefix.isEmpty()) {
+                defaultNamespace = uri;
+            } else if (!XMLConstants.XML_NS_PREFIX.equals(prefix)) {
+                namespaces.putIfAbsent(prefix, uri);
+            }
+        }
+
+        @Override
+        protected void writeNamespaceDeclarations(String uri, Attributes attributes) throws IOException {
+            if (defaultNamespace != null) {
+                writeAttribute("xmlns", defaultNamespace);
+                defaultNamespace = null;
+            }
+        }
+    }
+}
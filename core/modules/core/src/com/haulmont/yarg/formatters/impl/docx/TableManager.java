@@ -17,15 +17,20 @@
 package com.haulmont.yarg.formatters.impl.docx;
 
 import com.haulmont.yarg.formatters.impl.AbstractFormatter;
+import com.haulmont.yarg.formatters.impl.AliasTemplate;
 import com.haulmont.yarg.formatters.impl.DocxFormatterDelegate;
 import com.haulmont.yarg.structure.BandData;
+import com.haulmont.yarg.util.docx4j.XmlCopyUtils;
 import org.docx4j.TraversalUtil;
 import org.docx4j.XmlUtils;
 import org.docx4j.wml.Tbl;
 import org.docx4j.wml.Text;
 import org.docx4j.wml.Tr;
 
-import java.util.regex.Matcher;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 
 import static org.apache.commons.lang3.StringUtils.isBlank;
 
@@ -37,6 +42,7 @@ public class TableManager {
     protected Tr rowWithAliases = null;
     protected String bandName = null;
     protected boolean skipIt = false;
+    protected List<Text> aliasTexts = null;
 
     TableManager(DocxFormatterDelegate docxFormatter, Tbl tbl) {
         this.docxFormatter = docxFormatter;
@@ -57,54 +63,114 @@ public class TableManager {
         return copiedRow;
     }
 
-    public void fillRowFromBand(Tr row, final BandData band) {
-        new TraversalUtil(row, new AliasVisitor(docxFormatter) {
-            @Override
-            protected void handle(Text text) {
-                String textValue = text.getValue();
-                if (docxFormatter.containsJustOneAlias(textValue)) {
-                    String parameterName = docxFormatter.unwrapParameterName(textValue);
-                    String fullParameterName = bandName + "." + parameterName;
-                    Object parameterValue = band.getParameterValue(parameterName);
-
-                    if (docxFormatter.tryToApplyInliners(fullParameterName, parameterValue, text)) return;
-                } else {
-                    for (String alias : docxFormatter.getAllAliases(textValue)) { //todo order in result string? In case like '${1} abc ${2}'
-                        String parameterName = docxFormatter.unwrapParameterName(alias);
-                        String fullParameterName = bandName + "." + parameterName;
-                        Object parameterValue = band.getParameterValue(parameterName);
-
-                        if (docxFormatter.tryToApplyInliners(fullParameterName, parameterValue, text)) {
-                            textValue = textValue.replace(alias, "");
-                        }
-                    }
-                }
+    /**
+     * Copies the row with aliases, fills the copy from the band and puts it before the row with aliases.
+     */
+    public Tr copyRowWithAliasesAndFill(BandData band) {
+        Tr copiedRow = createRowFromBand(band);
+        int index = table.getContent().indexOf(rowWithAliases);
+        table.getContent().add(index, copiedRow);
+        return copiedRow;
+    }
 
-                //todo eude the following logic is not full and ignores situation when in 1 text we have both table and not table aliases
-                boolean hasTableAliases = false;
-                Matcher matcher = AbstractFormatter.UNIVERSAL_ALIAS_PATTERN.matcher(textValue);
-                while(matcher.find()) {
-                    AbstractFormatter.BandPathAndParameterName bandAndParameter = docxFormatter.separateBandNameAndParameterName(matcher.group(1));
-                    if (isBlank(bandAndParameter.getBandPath()) || isBlank(bandAndParameter.getParameterName())) {
-                        hasTableAliases = true;
-                    }
+    /**
+     * Copies the row with aliases and fills the copy from the band, the copy is not added to the table.
+     * The row is copied without marshalling when possible, in this case texts with aliases are collected
+     * only once for the template row and only their copies are visited.
+     */
+    public Tr createRowFromBand(BandData band) {
+        if (aliasTexts == null) {
+            aliasTexts = new ArrayList<>();
+            new TraversalUtil(rowWithAliases, new AliasVisitor(docxFormatter) {
+                @Override
+                protected void handle(Text text) {
+                    aliasTexts.add(text);
                 }
 
-                if (hasTableAliases) {
-                    String resultString = docxFormatter.insertBandDataToString(band, textValue);
-                    text.setValue(resultString);
+                @Override
+                public boolean shouldTraverse(Object o) {
+                    return shouldTraverseRow(o) && super.shouldTraverse(o);
                 }
-                text.setSpace("preserve");
+            });
+        }
+
+        Map<Object, Object> copies = new IdentityHashMap<>();
+        for (Text text : aliasTexts) {
+            copies.put(text, null);
+        }
+        Tr copiedRow = XmlCopyUtils.copyObjectGraph(rowWithAliases, copies);
+        if (copiedRow == null) {
+            copiedRow = XmlUtils.deepCopy(rowWithAliases);
+            new TraversalUtil(copiedRow, INVARIANTS_SETTER);
+            copiedRow.setParent(table);
+            fillRowFromBand(copiedRow, band);
+            return copiedRow;
+        }
+
+        for (Text text : aliasTexts) {
+            fillTextFromBand((Text) copies.get(text), band);
+        }
+        return copiedRow;
+    }
+
+    public void fillRowFromBand(Tr row, final BandData band) {
+        new TraversalUtil(row, new AliasVisitor(docxFormatter) {
+            @Override
+            protected void handle(Text text) {
+                fillTextFromBand(text, band);
             }
 
             @Override
             public boolean shouldTraverse(Object o) {
-                //ignore nested tables in control bands
-                return controlTable() ? !(o instanceof Tbl) : super.shouldTraverse(o);
+                return shouldTraverseRow(o) && super.shouldTraverse(o);
             }
         });
     }
 
+    protected boolean shouldTraverseRow(Object o) {
+        //ignore nested tables in control bands
+        return !controlTable() || !(o instanceof Tbl);
+    }
+
+    protected void fillTextFromBand(Text text, BandData band) {
+        String textValue = text.getValue();
+        if (docxFormatter.containsJustOneAlias(textValue)) {
+            String parameterName = docxFormatter.unwrapParameterName(textValue);
+            String fullParameterName = bandName + "." + parameterName;
+            Object parameterValue = band.getParameterValue(parameterName);
+
+            if (docxFormatter.tryToApplyInliners(fullParameterName, parameterValue, text)) return;
+        } else {
+            for (String alias : docxFormatter.getAllAliases(textValue)) { //todo order in result string? In case like '${1} abc ${2}'
+                String parameterName = docxFormatter.unwrapParameterName(alias);
+                String fullParameterName = bandName + "." + parameterName;
+                Object parameterValue = band.getParameterValue(parameterName);
+
+                if (docxFormatter.tryToApplyInliners(fullParameterName, parameterValue, text)) {
+                    textValue = textValue.replace(alias, "");
+                }
+            }
+        }
+
+        //todo eude the following logic is not full and ignores situation when in 1 text we have both table and not table aliases
+        boolean hasTableAliases = false;
+        for (AliasTemplate.Segment segment : docxFormatter.getAliasTemplate(textValue).getSegments()) {
+            if (segment.isAlias()) {
+                AbstractFormatter.BandPathAndParameterName bandAndParameter = docxFormatter.separateBandNameAndParameterName(segment.getParameterName());
+                if (isBlank(bandAndParameter.getBandPath()) || isBlank(bandAndParameter.getParameterName())) {
+                    hasTableAliases = true;
+                    break;
+                }
+            }
+        }
+
+        if (hasTableAliases) {
+            String resultString = docxFormatter.insertBandDataToString(band, textValue);
+            text.setValue(resultString);
+        }
+        text.setSpace("preserve");
+    }
+
     public Tbl getTable() {
         return table;
     }
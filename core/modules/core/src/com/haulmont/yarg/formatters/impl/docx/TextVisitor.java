@@ -29,6 +29,10 @@ public class TextVisitor extends AliasVisitor {
         super(docxFormatter);
     }
 
+    public TextVisitor(DocxFormatterDelegate docxFormatter, boolean mergeTexts) {
+        super(docxFormatter, mergeTexts);
+    }
+
     @Override
     protected void handle(Text text) {
         textWrappers.add(new TextWrapper(docxFormatter, text));
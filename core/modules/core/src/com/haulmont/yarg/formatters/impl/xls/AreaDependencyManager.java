@@ -15,6 +15,9 @@
  */
 package com.haulmont.yarg.formatters.impl.xls;
 
+import com.haulmont.yarg.formatters.impl.xlsx.CellReference;
+import com.haulmont.yarg.formatters.impl.xlsx.Range;
+import com.haulmont.yarg.formatters.impl.xlsx.RangeIndex;
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.poi.ss.formula.ptg.AreaPtg;
 import org.apache.poi.ss.formula.ptg.RefPtg;
@@ -25,7 +28,10 @@ import java.util.List;
 import java.util.Map;
 
 public class AreaDependencyManager {
+    private static final String SHEET = "";
+
     private Map<Area, List<Area>> areasDependency = new HashMap<Area, List<Area>>();
+    private RangeIndex<Area> templateAreasIndex;
 
     public Map<Area, List<Area>> getAreasDependency() {
         return areasDependency;
@@ -129,15 +135,33 @@ public class AreaDependencyManager {
     }
 
     public Area getTemplateAreaByCoordinate(int col, int row) {
-        for (Area areaReference : areasDependency.keySet()) {
-            if (areaReference.getTopLeft().getCol() > col) continue;
-            if (areaReference.getTopLeft().getRow() > row) continue;
-            if (areaReference.getBottomRight().getCol() < col) continue;
-            if (areaReference.getBottomRight().getRow() < row) continue;
+        List<Area> candidates = getTemplateAreasIndex().findContaining(new CellReference(SHEET, row + 1, col + 1));
+        if (candidates.size() <= 1) {
+            return candidates.isEmpty() ? null : candidates.get(0);
+        }
 
-            return areaReference;
+        //several areas contain the cell - keep the area which comes first in the dependency map
+        for (Area areaReference : areasDependency.keySet()) {
+            if (candidates.contains(areaReference)) {
+                return areaReference;
+            }
         }
 
         return null;
     }
+
+    /**
+     * Index of template areas by coordinates, rebuilt when areas are added after the previous lookup
+     */
+    protected RangeIndex<Area> getTemplateAreasIndex() {
+        if (templateAreasIndex == null || templateAreasIndex.size() != areasDependency.size()) {
+            templateAreasIndex = new RangeIndex<>();
+            for (Area area : areasDependency.keySet()) {
+                templateAreasIndex.add(new Range(SHEET,
+                        area.getTopLeft().getCol() + 1, area.getTopLeft().getRow() + 1,
+                        area.getBottomRight().getCol() + 1, area.getBottomRight().getRow() + 1), area);
+            }
+        }
+        return templateAreasIndex;
+    }
 }
\ No newline at end of file
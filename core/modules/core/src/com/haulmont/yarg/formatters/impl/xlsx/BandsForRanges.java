@@ -29,6 +29,11 @@ public class BandsForRanges {
         bandsToResultRanges.forcePut(bandData, result);
     }
 
+    public void addAll(BandsForRanges bandsForRanges) {
+        bandsToTemplateRanges.putAll(bandsForRanges.bandsToTemplateRanges);
+        bandsToResultRanges.putAll(bandsForRanges.bandsToResultRanges);
+    }
+
     public BandData bandForResultRange(Range result) {
         return bandsToResultRanges.inverse().get(result);
     }
@@ -34,6 +34,7 @@ import org.docx4j.relationships.Relationship;
 import org.xlsx4j.sml.*;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class Document {
     protected SpreadsheetMLPackage thePackage;
@@ -46,11 +47,30 @@ public class Document {
     protected List<PivotCacheDefinition> pivotCacheDefinitions = new ArrayList<>();
     protected HashSet<Part> handled = new HashSet<>();
 
+    /**
+     * Cells indexed by sheet name, row number and column number
+     */
+    protected Map<String, NavigableMap<Long, NavigableMap<Integer, Cell>>> cellIndexes = new ConcurrentHashMap<>();
+    protected Map<Range, Map<CellReference, Cell>> rangeCells = new ConcurrentHashMap<>();
+    protected Map<String, Optional<Range>> namedRanges = new ConcurrentHashMap<>();
+
+    /**
+     * Worksheets indexed by name and by contents
+     */
+    protected Map<String, SheetWrapper> worksheetsByName = new HashMap<>();
+    protected Map<Worksheet, Integer> worksheetIndexes = new IdentityHashMap<>();
+
+    /**
+     * Column definitions by sheet name, indexed by the first column of the definition
+     */
+    protected Map<String, NavigableMap<Long, Col>> columnIndexes = new ConcurrentHashMap<>();
+
     public static Document create(SpreadsheetMLPackage thePackage) {
         Document document = new Document();
         document.thePackage = thePackage;
         RelationshipsPart rp = thePackage.getRelationshipsPart();
         document.traverse(null, rp);
+        document.indexWorksheets();
 
         return document;
     }
@@ -76,13 +96,21 @@ public class Document {
     }
 
     public Worksheet getSheetByName(String name) {
-        for (Document.SheetWrapper sheetWrapper : worksheets) {
-            if (sheetWrapper.getName().equals(name)) {
-                return getWorksheetContents(sheetWrapper);
-            }
-        }
+        SheetWrapper sheetWrapper = worksheetsByName.get(name);
+        return sheetWrapper != null ? getWorksheetContents(sheetWrapper) : null;
+    }
 
-        return null;
+    public WorksheetPart getWorksheetPart(Worksheet worksheet) {
+        Integer index = worksheetIndexes.get(worksheet);
+        return index != null ? worksheets.get(index).getWorksheet() : null;
+    }
+
+    /**
+     * @return position of the worksheet in {@link #getWorksheets()} or -1 if worksheet does not belong to the document
+     */
+    public int getWorksheetIndex(Worksheet worksheet) {
+        Integer index = worksheetIndexes.get(worksheet);
+        return index != null ? index : -1;
     }
 
     public Worksheet getWorksheetContents(Document.SheetWrapper wrapper) {
@@ -94,13 +122,8 @@ public class Document {
     }
 
     public String getSheetName(Worksheet worksheet) {
-        for (Document.SheetWrapper sheetWrapper : worksheets) {
-            if (worksheet == getWorksheetContents(sheetWrapper)) {
-                return sheetWrapper.getName();
-            }
-        }
-
-        return null;
+        Integer index = worksheetIndexes.get(worksheet);
+        return index != null ? worksheets.get(index).getName() : null;
     }
 
     public String getCellValue(Cell cell) {
@@ -149,45 +172,116 @@ public class Document {
         return targetRange;
     }
 
+    /**
+     * Returns range of the defined name or null if there is no such name. Ranges are resolved on the first call,
+     * so the method should be used only for documents which are not changed (templates).
+     * Returned range must not be modified.
+     */
+    public Range getRangeByName(String name) {
+        return namedRanges.computeIfAbsent(name, definedName -> {
+            CTDefinedName targetRange = getDefinedName(definedName);
+            return targetRange != null ? Optional.of(Range.fromFormula(targetRange.getValue())) : Optional.empty();
+        }).orElse(null);
+    }
+
+    /**
+     * Returns cells of the range. Cells are indexed on the first call,
+     * so the method should be used only for documents which are not changed (templates).
+     * Returned map must not be modified.
+     */
     public Map<CellReference, Cell> getCellsByRange(Range range) {
-        Worksheet sheet = getSheetByName(range.getSheet());
-        SheetData data = sheet.getSheetData();
+        Map<CellReference, Cell> cells = rangeCells.get(range);
+        if (cells == null) {
+            cells = Collections.unmodifiableMap(findCellsByRange(range));
+            rangeCells.put(range.copy(), cells);
+        }
+        return cells;
+    }
+
+    protected Map<CellReference, Cell> findCellsByRange(Range range) {
+        NavigableMap<Long, NavigableMap<Integer, Cell>> rows = getCellIndex(range.getSheet());
 
         Map<CellReference, Cell> result = new LinkedHashMap<>();
-        for (int i = 1; i <= data.getRow().size(); i++) {
-            Row row = data.getRow().get(i - 1);
-            if (range.getFirstRow() <= row.getR() && row.getR() <= range.getLastRow()) {
-                List<Cell> c = row.getC();
-
-                for (Cell cell : c) {
-                    CellReference cellReference = new CellReference(range.getSheet(), cell.getR());
-                    if (range.getFirstColumn() <= cellReference.getColumn() && cellReference.getColumn() <= range.getLastColumn()) {
-                        result.put(cellReference, cell);
-                    }
-                }
+        for (NavigableMap<Integer, Cell> rowCells : rows.subMap((long) range.getFirstRow(), true, (long) range.getLastRow(), true).values()) {
+            for (Cell cell : rowCells.subMap(range.getFirstColumn(), true, range.getLastColumn(), true).values()) {
+                result.put(new CellReference(range.getSheet(), cell.getR()), cell);
             }
         }
         return result;
     }
 
-    public Col getColumnForCell(String sheetName, CellReference cellReference) {
-        Worksheet sheet = getSheetByName(sheetName);
-        List<Cols> colsList = sheet.getCols();
-        for (Cols cols : colsList) {
-            for (Col col : cols.getCol()) {
-                if (col.getMin() <= cellReference.getColumn() && cellReference.getColumn() <= col.getMax()) {
-                    return col;
+    protected NavigableMap<Long, NavigableMap<Integer, Cell>> getCellIndex(String sheetName) {
+        return cellIndexes.computeIfAbsent(sheetName, name -> {
+            NavigableMap<Long, NavigableMap<Integer, Cell>> rows = new TreeMap<>();
+            for (Row row : getSheetByName(name).getSheetData().getRow()) {
+                NavigableMap<Integer, Cell> cells = new TreeMap<>();
+                for (Cell cell : row.getC()) {
+                    cells.put(new CellReference(name, cell.getR()).getColumn(), cell);
                 }
+                rows.put(row.getR(), cells);
             }
+            return rows;
+        });
+    }
+
+    public Col getColumnForCell(String sheetName, CellReference cellReference) {
+        Map.Entry<Long, Col> entry = getColumnIndex(sheetName).floorEntry((long) cellReference.getColumn());
+        if (entry != null && cellReference.getColumn() <= entry.getValue().getMax()) {
+            return entry.getValue();
         }
 
         return null;
     }
 
+    /**
+     * Adds column definition to the first column list of the sheet
+     */
+    public void addColumn(String sheetName, Col col) {
+        getSheetByName(sheetName).getCols().get(0).getCol().add(col);
+        getColumnIndex(sheetName).putIfAbsent(col.getMin(), col);
+    }
+
+    protected NavigableMap<Long, Col> getColumnIndex(String sheetName) {
+        return columnIndexes.computeIfAbsent(sheetName, name -> {
+            NavigableMap<Long, Col> columns = new TreeMap<>();
+            for (Cols cols : getSheetByName(name).getCols()) {
+                for (Col col : cols.getCol()) {
+                    columns.putIfAbsent(col.getMin(), col);
+                }
+            }
+            return columns;
+        });
+    }
+
+    protected void indexWorksheets() {
+        for (int i = 0; i < worksheets.size(); i++) {
+            SheetWrapper sheetWrapper = worksheets.get(i);
+            worksheetsByName.putIfAbsent(sheetWrapper.getName(), sheetWrapper);
+            worksheetIndexes.putIfAbsent(getWorksheetContents(sheetWrapper), i);
+        }
+    }
+
     public StyleSheet getStyleSheet() {
         return styleSheet;
     }
 
+    /**
+     * Returns shared strings table of the workbook, the table is created if the workbook does not contain it
+     */
+    public CTSst getSharedStringsTable() {
+        try {
+            if (sharedStrings == null) {
+                SharedStrings part = new SharedStrings();
+                part.setJaxbElement(new CTSst());
+                thePackage.getWorkbookPart().addTargetPart(part);
+                sharedStrings = part;
+            }
+            return sharedStrings.getContents();
+        } catch (Docx4JException e) {
+            throw new ReportFormattingException("An error occurred while getting shared strings of docx4j workbook", e);
+        }
+    }
+
     private void traverse(Part parent, RelationshipsPart rp) {
         int chartNum = 0;
         for (Relationship r : rp.getRelationships().getRelationship()) {
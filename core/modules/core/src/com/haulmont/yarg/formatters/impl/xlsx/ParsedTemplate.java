@@ -0,0 +1,64 @@
+/*
+ * Copyright 2013 Haulmont
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.haulmont.yarg.formatters.impl.xlsx;
+
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.SetMultimap;
+import org.xlsx4j.sml.CTMergeCell;
+import org.xlsx4j.sml.CTMergeCells;
+
+/**
+ * Xlsx template document with the template analysis which does not depend on report data.
+ * Might be shared between report runs, so it must not be modified.
+ */
+public class ParsedTemplate {
+    protected final Document document;
+    protected final SetMultimap<Range, Range> rangeVerticalIntersections;
+    protected final RangeIndex<Range> mergeRegions;
+
+    public ParsedTemplate(Document document, SetMultimap<Range, Range> rangeVerticalIntersections) {
+        this.document = document;
+        this.rangeVerticalIntersections = ImmutableSetMultimap.copyOf(rangeVerticalIntersections);
+        this.mergeRegions = indexMergeRegions(document);
+    }
+
+    protected RangeIndex<Range> indexMergeRegions(Document document) {
+        RangeIndex<Range> mergeRegions = new RangeIndex<>();
+        for (Document.SheetWrapper sheetWrapper : document.getWorksheets()) {
+            CTMergeCells mergeCells = document.getWorksheetContents(sheetWrapper).getMergeCells();
+            if (mergeCells != null && mergeCells.getMergeCell() != null) {
+                for (CTMergeCell mergeCell : mergeCells.getMergeCell()) {
+                    Range mergeRange = Range.fromRange(sheetWrapper.getName(), mergeCell.getRef());
+                    mergeRegions.add(mergeRange, mergeRange);
+                }
+            }
+        }
+        return mergeRegions;
+    }
+
+    public Document getDocument() {
+        return document;
+    }
+
+    public SetMultimap<Range, Range> getRangeVerticalIntersections() {
+        return rangeVerticalIntersections;
+    }
+
+    public RangeIndex<Range> getMergeRegions() {
+        return mergeRegions;
+    }
+}
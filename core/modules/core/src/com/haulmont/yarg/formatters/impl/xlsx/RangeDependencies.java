@@ -18,13 +18,17 @@ package com.haulmont.yarg.formatters.impl.xlsx;
 
 import com.google.common.collect.ArrayListMultimap;
 
-import java.util.Collection;
-import java.util.List;
-import java.util.Set;
+import java.util.*;
 
 public class RangeDependencies {
     protected ArrayListMultimap<Range, Range> rangeDependencies = ArrayListMultimap.create();
 
+    /**
+     * Result ranges of each template indexed by their first row
+     */
+    protected Map<Range, NavigableMap<Integer, List<Range>>> resultsByFirstRow = new HashMap<>();
+    protected Map<Range, Integer> resultHeights = new HashMap<>();
+
     public Set<Range> templates(){
         return rangeDependencies.keySet();
     }
@@ -39,5 +43,28 @@ public class RangeDependencies {
 
     public void addDependency(Range templateRange, Range resultRange) {
         rangeDependencies.put(templateRange, resultRange);
+        resultsByFirstRow.computeIfAbsent(templateRange, range -> new TreeMap<>())
+                .computeIfAbsent(resultRange.getFirstRow(), row -> new ArrayList<>(1))
+                .add(resultRange);
+        resultHeights.merge(templateRange, resultRange.getLastRow() - resultRange.getFirstRow(), Math::max);
+    }
+
+    /**
+     * @return result range of the template which contains the cell (the upper one if there are several) or null
+     */
+    public Range resultForTemplateContaining(Range template, CellReference cellReference) {
+        NavigableMap<Integer, List<Range>> results = resultsByFirstRow.get(template);
+        if (results == null) {
+            return null;
+        }
+        int row = cellReference.getRow();
+        for (List<Range> resultRanges : results.subMap(row - resultHeights.get(template), true, row, true).values()) {
+            for (Range resultRange : resultRanges) {
+                if (resultRange.contains(cellReference)) {
+                    return resultRange;
+                }
+            }
+        }
+        return null;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2013 Haulmont
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.haulmont.yarg.formatters.impl.xlsx;
+
+import java.util.*;
+
+/**
+ * Index of values associated with sheet ranges (merge regions, conditional formatting, hints etc.).
+ * Ranges are indexed by sheet and first row, so only ranges starting in rows which could reach the requested
+ * cell or range are checked. Values are returned in the order they were added.
+ * The index is not modified by lookups, so a filled index might be shared between threads.
+ */
+public class RangeIndex<T> {
+    protected final Map<String, NavigableMap<Integer, List<Entry<T>>>> entriesBySheet = new HashMap<>();
+    protected final Map<String, Integer> maxHeights = new HashMap<>();
+    protected final List<T> values = new ArrayList<>();
+
+    public void add(Range range, T value) {
+        entriesBySheet.computeIfAbsent(range.getSheet(), sheet -> new TreeMap<>())
+                .computeIfAbsent(range.getFirstRow(), row -> new ArrayList<>(1))
+                .add(new Entry<>(range, value, values.size()));
+        maxHeights.merge(range.getSheet(), range.getLastRow() - range.getFirstRow(), Math::max);
+        values.add(value);
+    }
+
+    public int size() {
+        return values.size();
+    }
+
+    /**
+     * @return all values in the order they were added
+     */
+    public List<T> values() {
+        return Collections.unmodifiableList(values);
+    }
+
+    /**
+     * @return values of the ranges containing the cell
+     */
+    public List<T> findContaining(CellReference cellReference) {
+        List<Entry<T>> found = new ArrayList<>();
+        for (Entry<T> entry : candidates(cellReference.getSheet(), cellReference.getRow(), cellReference.getRow())) {
+            if (entry.range.contains(cellReference)) {
+                found.add(entry);
+            }
+        }
+        return values(found);
+    }
+
+    /**
+     * @return values of the ranges intersecting the range
+     */
+    public List<T> findIntersecting(Range range) {
+        List<Entry<T>> found = new ArrayList<>();
+        for (Entry<T> entry : candidates(range.getSheet(), range.getFirstRow(), range.getLastRow())) {
+            if (entry.range.intersects(range)) {
+                found.add(entry);
+            }
+        }
+        return values(found);
+    }
+
+    /**
+     * @return true if any range intersects the range
+     */
+    public boolean intersectsAny(Range range) {
+        NavigableMap<Integer, List<Entry<T>>> entries = entriesBySheet.get(range.getSheet());
+        if (entries == null) {
+            return false;
+        }
+        int firstRow = range.getFirstRow() - maxHeights.get(range.getSheet());
+        for (List<Entry<T>> rowEntries : entries.subMap(firstRow, true, range.getLastRow(), true).values()) {
+            for (Entry<T> entry : rowEntries) {
+                if (entry.range.intersects(range)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    protected List<Entry<T>> candidates(String sheet, int firstRow, int lastRow) {
+        NavigableMap<Integer, List<Entry<T>>> entries = entriesBySheet.get(sheet);
+        if (entries == null) {
+            return Collections.emptyList();
+        }
+        List<Entry<T>> candidates = new ArrayList<>();
+        for (List<Entry<T>> rowEntries : entries.subMap(firstRow - maxHeights.get(sheet), true, lastRow, true).values()) {
+            candidates.addAll(rowEntries);
+        }
+        return candidates;
+    }
+
+    protected List<T> values(List<Entry<T>> entries) {
+        if (entries.isEmpty()) {
+            return Collections.emptyList();
+        }
+        entries.sort(Comparator.comparingInt(entry -> entry.order));
+        List<T> values = new ArrayList<>(entries.size());
+        for (Entry<T> entry : entries) {
+            values.add(entry.value);
+        }
+        return values;
+    }
+
+    protected static class Entry<T> {
+        protected final Range range;
+        protected final T value;
+        protected final int order;
+
+        protected Entry(Range range, T value, int order) {
+            this.range = range;
+            this.value = value;
+            this.order = order;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2013 Haulmont
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.haulmont.yarg.formatters.impl.xlsx;
+
+import org.xlsx4j.sml.CTRst;
+import org.xlsx4j.sml.CTSst;
+import org.xlsx4j.sml.CTXstringWhitespace;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Adds strings to the shared strings table of the workbook, each distinct string is added only once.
+ * Strings might be added by several threads rendering different sheets.
+ */
+public class SharedStringPool {
+    protected final CTSst sharedStrings;
+    protected final Map<String, Integer> indexes = new HashMap<>();
+    protected long referencesCount;
+
+    public SharedStringPool(CTSst sharedStrings) {
+        this.sharedStrings = sharedStrings;
+        List<CTRst> items = sharedStrings.getSi();
+        for (int i = 0; i < items.size(); i++) {
+            CTRst item = items.get(i);
+            if (item.getT() != null && item.getR().isEmpty()) {
+                indexes.putIfAbsent(item.getT().getValue(), i);
+            }
+        }
+    }
+
+    /**
+     * @return index of the string in the shared strings table
+     */
+    public synchronized int add(String value) {
+        referencesCount++;
+        Integer index = indexes.get(value);
+        if (index == null) {
+            CTXstringWhitespace text = new CTXstringWhitespace();
+            text.setValue(value);
+            if (!value.equals(value.trim())) {
+                text.setSpace("preserve");
+            }
+            CTRst item = new CTRst();
+            item.setT(text);
+            text.setParent(item);
+            item.setParent(sharedStrings);
+
+            index = sharedStrings.getSi().size();
+            sharedStrings.getSi().add(item);
+            indexes.put(value, index);
+        }
+        return index;
+    }
+
+    /**
+     * Sets count attributes of the table, it is supposed that all string cells of the workbook reference the pool
+     */
+    public void updateCounts() {
+        sharedStrings.setCount(referencesCount);
+        sharedStrings.setUniqueCount((long) sharedStrings.getSi().size());
+    }
+}
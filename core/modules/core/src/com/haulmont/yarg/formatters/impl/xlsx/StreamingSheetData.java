@@ -0,0 +1,231 @@
+/*
+ * Copyright 2013 Haulmont
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.haulmont.yarg.formatters.impl.xlsx;
+
+import com.haulmont.yarg.util.docx4j.XmlFragmentWriter;
+import org.xlsx4j.jaxb.Context;
+import org.xlsx4j.sml.Row;
+import org.xlsx4j.sml.SheetData;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.namespace.QName;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sheet data which keeps in memory only rows which have not been written yet.
+ * Written rows are marshalled to a temporary file and should be put into the worksheet xml on save
+ * (see {@link #transferTo(OutputStream)}). Written rows can not be accessed anymore.
+ */
+public class StreamingSheetData extends SheetData {
+    public static final String SML_NAMESPACE = "http://schemas.openxmlformats.org/spreadsheetml/2006/main";
+    protected static final QName ROW_NAME = new QName(SML_NAMESPACE, "row");
+
+    protected final List<Row> pendingRows = new ArrayList<>();
+    protected final List<Row> rowView = new RowView();
+    protected int writtenRowsCount;
+
+    protected File file;
+    protected Writer writer;
+    protected Marshaller marshaller;
+
+    @Override
+    public List<Row> getRow() {
+        return rowView;
+    }
+
+    public int getWrittenRowsCount() {
+        return writtenRowsCount;
+    }
+
+    /**
+     * @return rows which have not been written yet, the first one has index {@link #getWrittenRowsCount()} in the sheet
+     */
+    public List<Row> getPendingRows() {
+        return pendingRows;
+    }
+
+    /**
+     * Writes the first {@code count} pending rows to the temporary file and releases them
+     */
+    public void writeRows(int count) throws IOException {
+        if (count <= 0) {
+            return;
+        }
+        if (writer == null) {
+            file = File.createTempFile("yarg-sheet", ".xml");
+            file.deleteOnExit();
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8));
+            marshaller = createMarshaller();
+        }
+
+        List<Row> rows = pendingRows.subList(0, count);
+        RowWriter rowWriter = new RowWriter(writer);
+        try {
+            for (Row row : rows) {
+                marshaller.marshal(new JAXBElement<>(ROW_NAME, Row.class, row), rowWriter);
+            }
+        } catch (JAXBException e) {
+            throw new IOException("Unable to write sheet rows", e);
+        }
+        writtenRowsCount += rows.size();
+        rows.clear();
+    }
+
+    /**
+     * Writes all pending rows and copies xml of all written rows to the stream
+     */
+    public void transferTo(OutputStream outputStream) throws IOException {
+        writeRows(pendingRows.size());
+        if (writer != null) {
+            writer.flush();
+            Files.copy(file.toPath(), outputStream);
+        }
+    }
+
+    /**
+     * Releases the temporary file
+     */
+    public void close() {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                //do nothing
+            }
+            writer = null;
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+        }
+    }
+
+    protected Marshaller createMarshaller() {
+        try {
+            Marshaller marshaller = Context.jcSML.createMarshaller();
+            marshaller.setProperty(Marshaller.JAXB_FRAGMENT, true);
+            return marshaller;
+        } catch (JAXBException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    protected class RowView extends AbstractList<Row> {
+        @Override
+        public Row get(int index) {
+            if (index < writtenRowsCount) {
+                throw new IllegalStateException(String.format("Row %d has already been written", index + 1));
+            }
+            return pendingRows.get(index - writtenRowsCount);
+        }
+
+        @Override
+        public int size() {
+            return writtenRowsCount + pendingRows.size();
+        }
+
+        @Override
+        public void add(int index, Row row) {
+            if (index != size()) {
+                throw new UnsupportedOperationException("Rows could be only appended to the sheet");
+            }
+            pendingRows.add(row);
+        }
+
+        @Override
+        public void clear() {
+            if (writtenRowsCount > 0) {
+                throw new IllegalStateException("Sheet rows have already been written");
+            }
+            pendingRows.clear();
+        }
+    }
+
+    /**
+     * Writes marshalled rows as a part of the worksheet, which declares spreadsheetml namespace as the default one.
+     * JAXB declares all known namespaces for each fragment, so the declarations are written only for elements
+     * and attributes from other namespaces.
+     */
+    protected static class RowWriter extends XmlFragmentWriter {
+        protected final List<String> prefixMappings = new ArrayList<>();
+        protected int depth;
+        protected int foreignDepth;
+
+        protected RowWriter(Writer writer) {
+            super(writer);
+        }
+
+        @Override
+        public void startPrefixMapping(String prefix, String uri) {
+            if (!SML_NAMESPACE.equals(uri)) {
+                prefixMappings.add(prefix);
+                prefixMappings.add(uri);
+            }
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
+            super.startElement(uri, localName, qName, attributes);
+            depth++;
+            if (!SML_NAMESPACE.equals(uri)) {
+                foreignDepth++;
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) throws SAXException {
+            super.endElement(uri, localName, qName);
+            if (!SML_NAMESPACE.equals(uri)) {
+                foreignDepth--;
+            }
+            if (--depth == 0) {
+                prefixMappings.clear();
+            }
+        }
+
+        @Override
+        protected void writeNamespaceDeclarations(String uri, Attributes attributes) throws IOException {
+            if (foreignDepth == 0 && (!SML_NAMESPACE.equals(uri) || hasForeignAttributes(attributes))) {
+                for (int i = 0; i < prefixMappings.size(); i += 2) {
+                    String prefix = prefixMappings.get(i);
+                    writeAttribute(prefix.isEmpty() ? "xmlns" : "xmlns:" + prefix, prefixMappings.get(i + 1));
+                }
+            }
+        }
+
+        @Override
+        protected String getName(String uri, String localName, String qName) {
+            return SML_NAMESPACE.equals(uri) ? localName : qName;
+        }
+
+        protected boolean hasForeignAttributes(Attributes attributes) {
+            for (int i = 0; i < attributes.getLength(); i++) {
+                if (!attributes.getURI(i).isEmpty()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -20,6 +20,7 @@ import com.google.common.base.Splitter;
 import com.haulmont.yarg.formatters.impl.xlsx.CellReference;
 import com.haulmont.yarg.formatters.impl.xlsx.Document;
 import com.haulmont.yarg.formatters.impl.xlsx.Range;
+import com.haulmont.yarg.formatters.impl.xlsx.RangeIndex;
 import com.haulmont.yarg.structure.BandData;
 import org.xlsx4j.sml.CTDefinedName;
 import org.xlsx4j.sml.Cell;
@@ -34,6 +35,7 @@ public class XslxHintProcessor {
     protected static String DELIMITER = "_";
     protected List<XlsxHint> hints = new ArrayList<XlsxHint>();
     protected List<HintDescriptor> descriptors = new ArrayList<HintDescriptor>();
+    protected RangeIndex<HintDescriptor> descriptorsIndex = new RangeIndex<>();
 
     public XslxHintProcessor() {
 
@@ -63,6 +65,7 @@ public class XslxHintProcessor {
                                 descriptor.range = Range.fromFormula(name.getValue());
                                 descriptor.params = names.size() > 2 ? names.subList(2, names.size()) : Collections.<String>emptyList();
                                 descriptors.add(descriptor);
+                                descriptorsIndex.add(descriptor.range, descriptor);
                                 break;
                             }
                         }
@@ -77,16 +80,11 @@ public class XslxHintProcessor {
     }
 
     public void add(CellReference templateRef, Cell templateCell, Cell resultCell, BandData bandData) {
-        List<HintDescriptor> filtered = new ArrayList<HintDescriptor>();
-        for (HintDescriptor descriptor : descriptors) {
-            if (descriptor.range.contains(templateRef)) {
-                filtered.add(descriptor);
-            }
+        if (descriptors.isEmpty()) {
+            return;
         }
-        if (!filtered.isEmpty()) {
-            for (HintDescriptor descriptor : filtered) {
-                descriptor.hint.add(templateCell, resultCell, bandData, descriptor.params);
-            }
+        for (HintDescriptor descriptor : descriptorsIndex.findContaining(templateRef)) {
+            descriptor.hint.add(templateCell, resultCell, bandData, descriptor.params);
         }
     }
 
@@ -16,13 +16,26 @@
 
 package com.haulmont.yarg.util.docx4j;
 
+import org.apache.commons.lang3.ArrayUtils;
+import org.docx4j.wml.ArrayListWml;
+import org.jvnet.jaxb2_commons.ppp.Child;
+import org.xlsx4j.sml.CTBreak;
+import org.xlsx4j.sml.CTCellFormula;
 import org.xlsx4j.sml.Cell;
+import org.xlsx4j.sml.Col;
 import org.xml.sax.*;
 import org.xml.sax.ext.LexicalHandler;
 import org.xml.sax.helpers.XMLFilterImpl;
 import javax.xml.bind.*;
+import javax.xml.bind.annotation.XmlType;
 import javax.xml.bind.util.JAXBSource;
 import javax.xml.namespace.QName;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class XmlCopyUtils {
 
@@ -36,6 +49,16 @@ public class XmlCopyUtils {
         }
     }
 
+    private final static Field[] CELL_FIELDS = getValueFields(Cell.class, "f", "is", "extLst");
+    private final static Field[] FORMULA_FIELDS = getValueFields(CTCellFormula.class);
+    private final static Field[] COL_FIELDS = getValueFields(Col.class);
+    private final static Field[] BREAK_FIELDS = getValueFields(CTBreak.class);
+
+    private final static Set<Class<?>> IMMUTABLE_TYPES = new HashSet<>(Arrays.asList(
+            String.class, Boolean.class, Character.class, Byte.class, Short.class, Integer.class, Long.class,
+            Float.class, Double.class, BigInteger.class, BigDecimal.class, QName.class, Class.class));
+    private final static Map<Class<?>, Field[]> GRAPH_FIELDS = new ConcurrentHashMap<>();
+
     private XmlCopyUtils() {
     }
 
@@ -55,7 +78,150 @@ public class XmlCopyUtils {
         }
     }
 
+    /**
+     * Copies cell and its formula field by field. Cells with rich text or extensions are copied via JAXB.
+     */
     public static Cell copyCell(Cell cell, Unmarshaller unmarshaller, Marshaller marshaller) {
+        if (cell.getIs() != null || cell.getExtLst() != null) {
+            return copyCellWithJaxb(cell, unmarshaller, marshaller);
+        }
+
+        Cell copy = copyValueFields(cell, new Cell(), CELL_FIELDS);
+        if (cell.getF() != null) {
+            CTCellFormula formula = copyValueFields(cell.getF(), new CTCellFormula(), FORMULA_FIELDS);
+            formula.setParent(copy);
+            copy.setF(formula);
+        }
+        return copy;
+    }
+
+    public static Col copyCol(Col col) {
+        return copyValueFields(col, new Col(), COL_FIELDS);
+    }
+
+    public static CTBreak copyBreak(CTBreak pageBreak) {
+        return copyValueFields(pageBreak, new CTBreak(), BREAK_FIELDS);
+    }
+
+    /**
+     * Copies graph of JAXB generated objects (e.g. wml table row with its cells, paragraphs, runs and texts)
+     * field by field without marshalling, parents of the copied objects are set to their copied owners.
+     *
+     * @param copies source objects to map to their copies, values of the map are filled during copying
+     * @return copy of the object or null if the graph contains objects which could be copied only via JAXB
+     */
+    public static <T> T copyObjectGraph(T object, Map<Object, Object> copies) {
+        try {
+            @SuppressWarnings("unchecked")
+            T copy = (T) copyGraphValue(object, null, copies);
+            if (object instanceof Child) {
+                ((Child) copy).setParent(((Child) object).getParent());
+            }
+            return copy;
+        } catch (UnsupportedGraphException e) {
+            return null;
+        }
+    }
+
+    protected static Object copyGraphValue(Object value, Object owner, Map<Object, Object> copies) {
+        if (value == null || value instanceof Enum || IMMUTABLE_TYPES.contains(value.getClass())) {
+            return value;
+        }
+        if (value instanceof JAXBElement) {
+            JAXBElement<?> element = (JAXBElement<?>) value;
+            @SuppressWarnings("unchecked")
+            JAXBElement<Object> copy = new JAXBElement<>(element.getName(), (Class<Object>) element.getDeclaredType(),
+                    element.getScope(), copyGraphValue(element.getValue(), owner, copies));
+            copy.setNil(element.isNil());
+            return copy;
+        }
+        if (value.getClass() == ArrayList.class || value.getClass() == ArrayListWml.class) {
+            List<Object> copy = value instanceof ArrayListWml ? new ArrayListWml<>(owner) : new ArrayList<>();
+            for (Object item : (List<?>) value) {
+                copy.add(copyGraphValue(item, owner, copies));
+            }
+            return copy;
+        }
+        if (value.getClass() == HashMap.class) {
+            Map<Object, Object> copy = new HashMap<>();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                if (!IMMUTABLE_TYPES.contains(entry.getKey().getClass())) {
+                    throw new UnsupportedGraphException();
+                }
+                copy.put(entry.getKey(), copyGraphValue(entry.getValue(), owner, copies));
+            }
+            return copy;
+        }
+        if (value instanceof byte[]) {
+            return ((byte[]) value).clone();
+        }
+        if (!value.getClass().isAnnotationPresent(XmlType.class)) {
+            throw new UnsupportedGraphException();
+        }
+
+        Object copy;
+        try {
+            copy = value.getClass().getDeclaredConstructor().newInstance();
+            for (Field field : getGraphFields(value.getClass())) {
+                field.set(copy, copyGraphValue(field.get(value), copy, copies));
+            }
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedGraphException();
+        }
+        if (copy instanceof Child) {
+            ((Child) copy).setParent(owner);
+        }
+        if (copies.containsKey(value)) {
+            copies.put(value, copy);
+        }
+        return copy;
+    }
+
+    protected static Field[] getGraphFields(Class<?> type) {
+        return GRAPH_FIELDS.computeIfAbsent(type, t -> {
+            List<Field> fields = new ArrayList<>();
+            for (Class<?> current = t; current != Object.class; current = current.getSuperclass()) {
+                for (Field field : getValueFields(current)) {
+                    if (Modifier.isFinal(field.getModifiers())) {
+                        continue;
+                    }
+                    fields.add(field);
+                }
+            }
+            return fields.toArray(new Field[0]);
+        });
+    }
+
+    /**
+     * Getters of xlsx4j objects return default values instead of absent ones,
+     * so fields are copied directly to keep marshalled result the same
+     */
+    protected static <T> T copyValueFields(T source, T target, Field[] fields) {
+        try {
+            for (Field field : fields) {
+                field.set(target, field.get(source));
+            }
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+        return target;
+    }
+
+    protected static Field[] getValueFields(Class<?> type, String... excludedFields) {
+        List<Field> fields = new ArrayList<>();
+        for (Field field : type.getDeclaredFields()) {
+            if (Modifier.isStatic(field.getModifiers())
+                    || "parent".equals(field.getName())
+                    || ArrayUtils.contains(excludedFields, field.getName())) {
+                continue;
+            }
+            field.setAccessible(true);
+            fields.add(field);
+        }
+        return fields.toArray(new Field[0]);
+    }
+
+    protected static Cell copyCellWithJaxb(Cell cell, Unmarshaller unmarshaller, Marshaller marshaller) {
         try {
             JAXBElement<Cell> contentObject = new JAXBElement<>(new QName(cellName), Cell.class, cell);
             JAXBSource source = new JAXBSource(marshaller, contentObject);
@@ -67,6 +233,14 @@ public class XmlCopyUtils {
         }
     }
 
+    protected static class UnsupportedGraphException extends RuntimeException {
+        private static final long serialVersionUID = 6238412367810459372L;
+
+        protected UnsupportedGraphException() {
+            super(null, null, false, false);
+        }
+    }
+
     private static class PseudoXMLReader implements XMLReader {
         private Marshaller marshaller;
         private Object contentObject;
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2013 Haulmont
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.haulmont.yarg.util.docx4j;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes SAX events of marshalled objects as an xml fragment, which is supposed to be put into a document
+ * declaring the namespaces. Namespace declarations are not written by default,
+ * subclasses define which of them should be written (see {@link #writeNamespaceDeclarations(String, Attributes)}).
+ */
+public class XmlFragmentWriter extends DefaultHandler {
+    protected final Writer writer;
+
+    public XmlFragmentWriter(Writer writer) {
+        this.writer = writer;
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
+        try {
+            writer.write('<');
+            writer.write(getName(uri, localName, qName));
+            for (int i = 0; i < attributes.getLength(); i++) {
+                writeAttribute(getName(attributes.getURI(i), attributes.getLocalName(i), attributes.getQName(i)),
+                        attributes.getValue(i));
+            }
+            writeNamespaceDeclarations(uri, attributes);
+            writer.write('>');
+        } catch (IOException e) {
+            throw new SAXException(e);
+        }
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) throws SAXException {
+        try {
+            writer.write("</");
+            writer.write(getName(uri, localName, qName));
+            writer.write('>');
+        } catch (IOException e) {
+            throw new SAXException(e);
+        }
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) throws SAXException {
+        try {
+            escape(new String(ch, start, length), false);
+        } catch (IOException e) {
+            throw new SAXException(e);
+        }
+    }
+
+    /**
+     * Writes namespace declarations of the element being started, called after its attributes are written
+     */
+    protected void writeNamespaceDeclarations(String uri, Attributes attributes) throws IOException {
+    }
+
+    /**
+     * @return name of the element or attribute to write
+     */
+    protected String getName(String uri, String localName, String qName) {
+        return qName;
+    }
+
+    protected void writeAttribute(String name, String value) throws IOException {
+        writer.write(' ');
+        writer.write(name);
+        writer.write("=\"");
+        escape(value, true);
+        writer.write('"');
+    }
+
+    /**
+     * Escapes markup characters. Carriage returns are always written as character references since parsers
+     * normalise them, line feeds and tabs are written as references only in attribute values.
+     */
+    protected void escape(String value, boolean attribute) throws IOException {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '&':
+                    writer.write("&amp;");
+                    break;
+                case '<':
+                    writer.write("&lt;");
+                    break;
+                case '>':
+                    writer.write("&gt;");
+                    break;
+                case '"':
+                    writer.write(attribute ? "&quot;" : "\"");
+                    break;
+                case '\r':
+                    writer.write("&#13;");
+                    break;
+                case '\n':
+                case '\t':
+                    if (attribute) {
+                        writer.write("&#" + (int) c + ";");
+                    } else {
+                        writer.write(c);
+                    }
+                    break;
+                default:
+                    writer.write(c);
+            }
+        }
+    }
+}
@@ -14,11 +14,19 @@
  * the License.
  */
 
+import com.haulmont.yarg.formatters.impl.xlsx.CellReference;
+import com.haulmont.yarg.formatters.impl.xlsx.Document;
 import com.haulmont.yarg.formatters.impl.xlsx.Range;
 import com.haulmont.yarg.formatters.impl.xlsx.XlsxUtils;
 import junit.framework.Assert;
+import org.docx4j.openpackaging.packages.SpreadsheetMLPackage;
 import org.junit.Test;
+import org.xlsx4j.sml.*;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -55,4 +63,67 @@ public class XlsxUtilTest {
         Matcher matcher = pattern.matcher(str);
         System.out.println(matcher.find());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testCellsByRange() throws Exception {
+        Document document = Document.create(SpreadsheetMLPackage.load(new File("./modules/core/test/smoketest/test.xlsx")));
+        String sheet = document.getWorksheets().get(0).getName();
+
+        for (Range range : new Range[]{new Range(sheet, 1, 1, 3, 1), new Range(sheet, 2, 2, 5, 10), new Range(sheet, 1, 1, 50, 100)}) {
+            Map<CellReference, Cell> expected = new LinkedHashMap<>();
+            for (Row row : document.getSheetByName(sheet).getSheetData().getRow()) {
+                for (Cell cell : row.getC()) {
+                    CellReference cellReference = new CellReference(sheet, cell.getR());
+                    if (range.contains(cellReference)) {
+                        expected.put(cellReference, cell);
+                    }
+                }
+            }
+
+            Map<CellReference, Cell> cells = document.getCellsByRange(range);
+            Assert.assertEquals(new ArrayList<>(expected.entrySet()), new ArrayList<>(cells.entrySet()));
+            Assert.assertSame(cells, document.getCellsByRange(range.copy()));
+        }
+    }
+
+    @Test
+    public void testRangeByName() throws Exception {
+        Document document = Document.create(SpreadsheetMLPackage.load(new File("./modules/core/test/smoketest/test.xlsx")));
+        CTDefinedName definedName = document.getWorkbook().getDefinedNames().getDefinedName().get(0);
+
+        Range range = document.getRangeByName(definedName.getName());
+        Assert.assertEquals(Range.fromFormula(definedName.getValue()), range);
+        Assert.assertSame(range, document.getRangeByName(definedName.getName()));
+        Assert.assertNull(document.getRangeByName("NotExistingBand"));
+    }
+
+    @Test
+    public void testWorksheetAndColumnLookups() throws Exception {
+        Document document = Document.create(SpreadsheetMLPackage.load(new File("./modules/core/test/smoketest/charts.xlsx")));
+        Document.SheetWrapper sheetWrapper = document.getWorksheets().get(0);
+        Worksheet worksheet = document.getSheetByName(sheetWrapper.getName());
+
+        Assert.assertSame(sheetWrapper.getWorksheet(), document.getWorksheetPart(worksheet));
+        Assert.assertEquals(sheetWrapper.getName(), document.getSheetName(worksheet));
+        Assert.assertEquals(0, document.getWorksheetIndex(worksheet));
+        Assert.assertEquals(-1, document.getWorksheetIndex(new Worksheet()));
+
+        for (int column = 1; column <= 30; column++) {
+            Col expected = null;
+            for (Cols cols : worksheet.getCols()) {
+                for (Col col : cols.getCol()) {
+                    if (expected == null && col.getMin() <= column && column <= col.getMax()) {
+                        expected = col;
+                    }
+                }
+            }
+            Assert.assertSame(expected, document.getColumnForCell(sheetWrapper.getName(), new CellReference(sheetWrapper.getName(), 1, column)));
+        }
+
+        Col col = new Col();
+        col.setMin(100);
+        col.setMax(100);
+        document.addColumn(sheetWrapper.getName(), col);
+        Assert.assertSame(col, document.getColumnForCell(sheetWrapper.getName(), new CellReference(sheetWrapper.getName(), 1, 100)));
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2013 Haulmont
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.haulmont.yarg.formatters.impl;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class AliasTemplateTest {
+    @Test
+    public void testParse() {
+        AliasTemplate template = AliasTemplate.parse("Total: ${Band1.sum} of ${count [0]}!");
+        List<AliasTemplate.Segment> segments = template.getSegments();
+
+        assertTrue(template.hasAliases());
+        assertEquals(5, segments.size());
+        assertEquals("Total: ", segments.get(0).getText());
+        assertEquals("Band1.sum", segments.get(1).getParameterName());
+        assertNull(segments.get(1).getStringFunction());
+        assertEquals("count", segments.get(3).getParameterName());
+        assertEquals("[0]", segments.get(3).getStringFunction());
+        assertEquals("!", segments.get(4).getText());
+    }
+
+    @Test
+    public void testRender() {
+        AliasTemplate template = AliasTemplate.parse("${a}-${b}-${a}");
+        assertEquals("A-B-A", template.render(alias -> alias.getParameterName().toUpperCase()));
+
+        AliasTemplate plain = AliasTemplate.parse("no aliases");
+        assertFalse(plain.hasAliases());
+        assertEquals("no aliases", plain.render(alias -> "x"));
+    }
+}
@@ -29,6 +29,8 @@ import java.text.SimpleDateFormat;
 import java.util.Collections;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 
 public class FormatTest {
     @Mocked
@@ -65,6 +67,28 @@ public class FormatTest {
         assertEquals("Test", abstractFormatter.formatValue(simpleDateFormat.parse("01-09-2009"), "number", "a.number"));
     }
 
+    @Test
+    public void testCompiledFormatsAreReused() {
+        AbstractFormatter abstractFormatter = createFormatter("a.number", "##.##", false);
+
+        assertEquals("5,57", abstractFormatter.formatValue(5.5678, "number", "a.number").replace(".", ","));
+        assertEquals("1,23", abstractFormatter.formatValue(1.2345, "number", "a.number").replace(".", ","));
+        assertSame(abstractFormatter.getDecimalFormat("##.##"), abstractFormatter.getDecimalFormat("##.##"));
+        assertSame(abstractFormatter.getValueFormat("class:com.haulmont.yarg.formatters.impl.TestValueFormat"),
+                abstractFormatter.getValueFormat("class:com.haulmont.yarg.formatters.impl.TestValueFormat"));
+    }
+
+    @Test
+    public void testFieldFormatIsResolvedOnce() {
+        AbstractFormatter abstractFormatter = createFormatter("a.number", "##.##", false);
+
+        AbstractFormatter.FieldFormat fieldFormat = abstractFormatter.getFieldFormat("a", "number");
+        assertEquals("##.##", fieldFormat.formatString);
+        assertSame(fieldFormat, abstractFormatter.getFieldFormat("a", "number"));
+        assertNull(abstractFormatter.getFieldFormat("b", "number").formatString);
+        assertEquals("5,57", abstractFormatter.formatValue(5.5678, fieldFormat, null).replace(".", ","));
+    }
+
     @Test
     public void testGroovyFormat() {
         AbstractFormatter abstractFormatter = createFormatter("a.text", "return value.replace('-', '/')", true);
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2013 Haulmont
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.haulmont.yarg.formatters.impl;
+
+import com.haulmont.yarg.structure.ReportOutputType;
+import com.haulmont.yarg.structure.ReportTemplate;
+import com.haulmont.yarg.structure.impl.ReportTemplateImpl;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class TemplateCacheTest {
+    @Test
+    public void testTemplateIsParsedOnce() throws Exception {
+        TemplateCache<String> cache = new TemplateCache<>();
+        AtomicInteger loads = new AtomicInteger();
+        TemplateCache.Loader<String> loader = content -> {
+            loads.incrementAndGet();
+            return new String(content);
+        };
+
+        ReportTemplate template = createTemplate("template.xlsx", "content");
+        String first = cache.get(template, "content".getBytes(), loader);
+        assertSame(first, cache.get(template, "content".getBytes(), loader));
+        assertEquals(1, loads.get());
+
+        assertEquals("changed", cache.get(template, "changed".getBytes(), loader));
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void testEldestTemplateIsEvicted() throws Exception {
+        TemplateCache<String> cache = new TemplateCache<>(2);
+        TemplateCache.Loader<String> loader = String::new;
+
+        cache.get(createTemplate("1.xlsx", "1"), "1".getBytes(), loader);
+        cache.get(createTemplate("2.xlsx", "2"), "2".getBytes(), loader);
+        cache.get(createTemplate("3.xlsx", "3"), "3".getBytes(), loader);
+
+        assertEquals(2, cache.size());
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+
+    private ReportTemplate createTemplate(String name, String content) throws Exception {
+        return new ReportTemplateImpl("", name, name, new ByteArrayInputStream(content.getBytes()), ReportOutputType.xlsx);
+    }
+}
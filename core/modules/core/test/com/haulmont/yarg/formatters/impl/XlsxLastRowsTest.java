@@ -0,0 +1,91 @@
+/*
+ * Copyright 2013 Haulmont
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.haulmont.yarg.formatters.impl;
+
+import com.haulmont.yarg.formatters.factory.FormatterFactoryInput;
+import com.haulmont.yarg.formatters.impl.xlsx.Range;
+import com.haulmont.yarg.structure.BandData;
+import com.haulmont.yarg.structure.BandOrientation;
+import com.haulmont.yarg.structure.ReportOutputType;
+import com.haulmont.yarg.structure.impl.ReportTemplateImpl;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class XlsxLastRowsTest {
+    @Test
+    public void testLastRowsOfNestedHorizontalBands() throws Exception {
+        BandData root = new BandData("Root", null, BandOrientation.HORIZONTAL);
+        int[] childrenCounts = {2, 0, 3};
+        for (int i = 0; i < childrenCounts.length; i++) {
+            BandData band1 = createBand("Band1", root, BandOrientation.HORIZONTAL, 6, i);
+            for (int j = 0; j < childrenCounts[i]; j++) {
+                band1.addChild(createBand("Band12", band1, BandOrientation.HORIZONTAL, 3, j));
+            }
+            if (i == 0) {
+                band1.addChild(createBand("Band13", band1, BandOrientation.VERTICAL, 2, 0));
+                band1.addChild(createBand("Band13", band1, BandOrientation.VERTICAL, 2, 1));
+            }
+            root.addChild(band1);
+        }
+        root.setFirstLevelBandDefinitionNames(new HashSet<>(Collections.singleton("Band1")));
+
+        XlsxFormatter formatter = new XlsxFormatter(new FormatterFactoryInput("xlsx", root,
+                new ReportTemplateImpl("", "./modules/core/test/integration/test.xlsx",
+                        "./modules/core/test/integration/test.xlsx", ReportOutputType.xlsx), new ByteArrayOutputStream()));
+        formatter.renderDocument();
+
+        List<BandData> bands = new ArrayList<>();
+        root.visit(band -> !bands.add(band));
+        Set<String> renderedNames = new HashSet<>();
+        for (BandData band : bands) {
+            assertEquals(band.getName(), findLastRow(formatter, band), formatter.getLastRow(band));
+            if (formatter.bandsForRanges.resultForBand(band) != null) {
+                assertNotNull(formatter.getLastRenderedBandForThisLevel(band));
+                renderedNames.add(band.getName());
+            }
+        }
+        assertEquals(new HashSet<>(Arrays.asList("Band1", "Band12", "Band13")), renderedNames);
+        assertTrue(formatter.getLastRow(root) > formatter.getLastRow(root.getChildrenList().get(0)));
+    }
+
+    /**
+     * Finds the last row by visiting all rendered children of the band
+     */
+    private int findLastRow(XlsxFormatter formatter, BandData band) {
+        int[] lastRow = {0};
+        band.visit(child -> {
+            Range range = formatter.bandsForRanges.resultForBand(child);
+            if (range != null && range.getLastRow() > lastRow[0]) {
+                lastRow[0] = range.getLastRow();
+            }
+            return false;
+        });
+        return lastRow[0];
+    }
+
+    private BandData createBand(String name, BandData parent, BandOrientation orientation, int columns, int index) {
+        BandData band = new BandData(name, parent, orientation);
+        for (int i = 1; i <= columns; i++) {
+            band.addData("col" + i, index * 10 + i);
+        }
+        return band;
+    }
+}
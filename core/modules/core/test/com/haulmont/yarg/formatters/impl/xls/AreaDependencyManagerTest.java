@@ -0,0 +1,42 @@
+/*
+ * Copyright 2013 Haulmont
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.haulmont.yarg.formatters.impl.xls;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AreaDependencyManagerTest {
+    @Test
+    public void testTemplateAreaByCoordinate() {
+        AreaDependencyManager manager = new AreaDependencyManager();
+        Area header = new Area(0, 0, 3, 0);
+        Area data = new Area(0, 1, 3, 2);
+        manager.addDependency(header, new Area(0, 0, 3, 0));
+        manager.addDependency(data, new Area(0, 1, 3, 2));
+        manager.addDependency(data, new Area(0, 3, 3, 4));
+
+        assertSame(header, manager.getTemplateAreaByCoordinate(2, 0));
+        assertSame(data, manager.getTemplateAreaByCoordinate(0, 2));
+        assertNull(manager.getTemplateAreaByCoordinate(4, 1));
+        assertNull(manager.getTemplateAreaByCoordinate(0, 3));
+
+        Area footer = new Area(0, 3, 1, 3);
+        manager.addDependency(footer, new Area(0, 5, 1, 5));
+        assertSame(footer, manager.getTemplateAreaByCoordinate(1, 3));
+    }
+}
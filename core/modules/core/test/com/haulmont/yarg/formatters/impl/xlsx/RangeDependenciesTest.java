@@ -0,0 +1,42 @@
+/*
+ * Copyright 2013 Haulmont
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.haulmont.yarg.formatters.impl.xlsx;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RangeDependenciesTest {
+    @Test
+    public void testResultForTemplateContaining() {
+        RangeDependencies rangeDependencies = new RangeDependencies();
+        Range template = Range.fromRange("Sheet", "A2:C3");
+        for (int i = 0; i < 100; i++) {
+            rangeDependencies.addDependency(template, template.copy().shift(i * 2, 0));
+        }
+
+        assertEquals(Range.fromRange("Sheet", "A2:C3"),
+                rangeDependencies.resultForTemplateContaining(template, new CellReference("Sheet", "B3")));
+        assertEquals(Range.fromRange("Sheet", "A100:C101"),
+                rangeDependencies.resultForTemplateContaining(template, new CellReference("Sheet", "C101")));
+        assertNull(rangeDependencies.resultForTemplateContaining(template, new CellReference("Sheet", "D101")));
+        assertNull(rangeDependencies.resultForTemplateContaining(template, new CellReference("Sheet", "A1")));
+        assertNull(rangeDependencies.resultForTemplateContaining(template, new CellReference("Other", "B3")));
+        assertNull(rangeDependencies.resultForTemplateContaining(Range.fromRange("Sheet", "A1:A1"),
+                new CellReference("Sheet", "A1")));
+    }
+}
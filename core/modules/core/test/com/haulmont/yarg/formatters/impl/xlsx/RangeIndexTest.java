@@ -0,0 +1,59 @@
+/*
+ * Copyright 2013 Haulmont
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.haulmont.yarg.formatters.impl.xlsx;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class RangeIndexTest {
+    @Test
+    public void testFind() {
+        RangeIndex<String> index = new RangeIndex<>();
+        index.add(Range.fromRange("Sheet", "B2:D10"), "tall");
+        index.add(Range.fromRange("Sheet", "A5:B5"), "row");
+        index.add(Range.fromRange("Sheet", "C20:C20"), "cell");
+        index.add(Range.fromRange("Other", "A1:Z100"), "other");
+
+        assertEquals(Arrays.asList("tall", "row"), index.findContaining(new CellReference("Sheet", "B5")));
+        assertEquals(Collections.singletonList("tall"), index.findContaining(new CellReference("Sheet", "D10")));
+        assertTrue(index.findContaining(new CellReference("Sheet", "A1")).isEmpty());
+        assertEquals(Collections.singletonList("other"), index.findContaining(new CellReference("Other", "B5")));
+
+        assertEquals(Arrays.asList("tall", "cell"), index.findIntersecting(Range.fromRange("Sheet", "C8:F20")));
+        assertTrue(index.findIntersecting(Range.fromRange("Sheet", "E1:F4")).isEmpty());
+        assertTrue(index.findIntersecting(Range.fromRange("Missing", "A1:A1")).isEmpty());
+        assertEquals(4, index.size());
+        assertEquals(Arrays.asList("tall", "row", "cell", "other"), index.values());
+    }
+
+    @Test
+    public void testIntersectsAny() {
+        RangeIndex<String> index = new RangeIndex<>();
+        index.add(Range.fromRange("Sheet", "A1:B3"), "header");
+        index.add(Range.fromRange("Sheet", "A4:B4"), "row");
+
+        assertTrue(index.intersectsAny(Range.fromRange("Sheet", "B3:C3")));
+        assertTrue(index.intersectsAny(Range.fromRange("Sheet", "A4:A4")));
+        assertFalse(index.intersectsAny(Range.fromRange("Sheet", "C1:D4")));
+        assertFalse(index.intersectsAny(Range.fromRange("Sheet", "A5:B5")));
+        assertFalse(index.intersectsAny(Range.fromRange("Other", "A1:A1")));
+    }
+}
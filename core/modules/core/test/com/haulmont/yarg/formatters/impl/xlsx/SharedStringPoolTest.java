@@ -0,0 +1,51 @@
+/*
+ * Copyright 2013 Haulmont
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.haulmont.yarg.formatters.impl.xlsx;
+
+import org.junit.Test;
+import org.xlsx4j.sml.CTRst;
+import org.xlsx4j.sml.CTSst;
+import org.xlsx4j.sml.CTXstringWhitespace;
+
+import static org.junit.Assert.*;
+
+public class SharedStringPoolTest {
+    @Test
+    public void testStringsAreAddedOnce() {
+        CTSst sharedStrings = new CTSst();
+        CTXstringWhitespace existingText = new CTXstringWhitespace();
+        existingText.setValue("existing");
+        CTRst existing = new CTRst();
+        existing.setT(existingText);
+        sharedStrings.getSi().add(existing);
+
+        SharedStringPool pool = new SharedStringPool(sharedStrings);
+        assertEquals(0, pool.add("existing"));
+        assertEquals(1, pool.add("Moscow"));
+        assertEquals(2, pool.add(" Berlin "));
+        assertEquals(1, pool.add("Moscow"));
+
+        assertEquals(3, sharedStrings.getSi().size());
+        assertEquals("Moscow", sharedStrings.getSi().get(1).getT().getValue());
+        assertNull(sharedStrings.getSi().get(1).getT().getSpace());
+        assertEquals("preserve", sharedStrings.getSi().get(2).getT().getSpace());
+
+        pool.updateCounts();
+        assertEquals(Long.valueOf(4), sharedStrings.getCount());
+        assertEquals(Long.valueOf(3), sharedStrings.getUniqueCount());
+    }
+}
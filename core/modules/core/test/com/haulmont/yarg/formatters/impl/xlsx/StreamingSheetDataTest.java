@@ -0,0 +1,67 @@
+/*
+ * Copyright 2013 Haulmont
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.haulmont.yarg.formatters.impl.xlsx;
+
+import org.docx4j.XmlUtils;
+import org.junit.Test;
+import org.xlsx4j.jaxb.Context;
+import org.xlsx4j.sml.Cell;
+import org.xlsx4j.sml.Row;
+import org.xlsx4j.sml.STCellType;
+import org.xlsx4j.sml.SheetData;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class StreamingSheetDataTest {
+    @Test
+    public void testWrittenValuesArePreserved() throws Exception {
+        String value = "first\r\nsecond\r\tthird & <fourth> \"fifth\"";
+
+        StreamingSheetData sheetData = new StreamingSheetData();
+        try {
+            for (int i = 1; i <= 2; i++) {
+                Cell cell = new Cell();
+                cell.setR("A" + i);
+                cell.setT(STCellType.STR);
+                cell.setV(value);
+                Row row = new Row();
+                row.setR((long) i);
+                row.getC().add(cell);
+                sheetData.getRow().add(row);
+            }
+            sheetData.writeRows(1);
+            assertEquals(1, sheetData.getWrittenRowsCount());
+            assertEquals(1, sheetData.getPendingRows().size());
+
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            sheetData.transferTo(outputStream);
+            String xml = "<sheetData xmlns=\"" + StreamingSheetData.SML_NAMESPACE + "\">"
+                    + new String(outputStream.toByteArray(), StandardCharsets.UTF_8) + "</sheetData>";
+
+            SheetData result = (SheetData) XmlUtils.unwrap(XmlUtils.unmarshalString(xml, Context.jcSML));
+            assertEquals(2, result.getRow().size());
+            for (Row row : result.getRow()) {
+                assertEquals(value, row.getC().get(0).getV());
+            }
+        } finally {
+            sheetData.close();
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2013 Haulmont
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.haulmont.yarg.util.docx4j;
+
+import org.docx4j.XmlUtils;
+import org.docx4j.wml.*;
+import org.junit.Test;
+import org.xlsx4j.jaxb.Context;
+import org.xlsx4j.sml.CTBreak;
+import org.xlsx4j.sml.CTCellFormula;
+import org.xlsx4j.sml.Cell;
+import org.xlsx4j.sml.Col;
+import org.xlsx4j.sml.STCellType;
+
+import javax.xml.bind.JAXBElement;
+import javax.xml.namespace.QName;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class XmlCopyUtilsTest {
+    @Test
+    public void testCopyCell() {
+        Cell cell = new Cell();
+        cell.setR("B2");
+        cell.setS(0L);
+        cell.setT(STCellType.STR);
+        cell.setV(" ${Band.value} ");
+        CTCellFormula formula = new CTCellFormula();
+        formula.setValue("SUM(A1:A2)");
+        formula.setCa(true);
+        formula.setParent(cell);
+        cell.setF(formula);
+
+        Cell copy = XmlCopyUtils.copyCell(cell, XmlCopyUtils.createUnmarshaller(Context.jcSML),
+                XmlCopyUtils.createMarshaller(Context.jcSML));
+
+        assertNotSame(cell.getF(), copy.getF());
+        assertSame(copy, copy.getF().getParent());
+        assertEquals(marshal(cell, Cell.class), marshal(copy, Cell.class));
+        assertEquals(marshal(XmlUtils.deepCopy(cell, Context.jcSML), Cell.class), marshal(copy, Cell.class));
+    }
+
+    @Test
+    public void testCopyColAndBreak() {
+        Col col = new Col();
+        col.setMin(2);
+        col.setMax(4);
+        col.setWidth(12.5);
+        col.setCustomWidth(true);
+        assertEquals(marshal(col, Col.class), marshal(XmlCopyUtils.copyCol(col), Col.class));
+
+        CTBreak pageBreak = new CTBreak();
+        pageBreak.setId(10L);
+        pageBreak.setMan(true);
+        assertEquals(marshal(pageBreak, CTBreak.class), marshal(XmlCopyUtils.copyBreak(pageBreak), CTBreak.class));
+    }
+
+    @Test
+    public void testCopyTableRow() throws Exception {
+        ObjectFactory factory = new ObjectFactory();
+        Tbl table = factory.createTbl();
+        Tr row = (Tr) XmlUtils.unmarshalString("<w:tr xmlns:w=\"http://schemas.openxmlformats.org/wordprocessingml/2006/main\">" +
+                "<w:trPr><w:trHeight w:val=\"300\"/></w:trPr>" +
+                "<w:tc><w:tcPr><w:tcW w:w=\"2000\" w:type=\"dxa\"/></w:tcPr>" +
+                "<w:p><w:pPr><w:jc w:val=\"center\"/></w:pPr>" +
+                "<w:r><w:rPr><w:b/></w:rPr><w:t xml:space=\"preserve\">${name} </w:t></w:r></w:p></w:tc></w:tr>");
+        table.getContent().add(row);
+        Tc cell = (Tc) XmlUtils.unwrap(row.getContent().get(0));
+        R run = (R) ((P) cell.getContent().get(0)).getContent().get(0);
+        Text text = (Text) XmlUtils.unwrap(run.getContent().get(0));
+
+        Map<Object, Object> copies = new IdentityHashMap<>();
+        copies.put(text, null);
+        Tr copy = XmlCopyUtils.copyObjectGraph(row, copies);
+
+        assertEquals(XmlUtils.marshaltoString(row), XmlUtils.marshaltoString(copy));
+        assertSame(table, copy.getParent());
+        Tc copiedCell = (Tc) XmlUtils.unwrap(copy.getContent().get(0));
+        P copiedParagraph = (P) copiedCell.getContent().get(0);
+        R copiedRun = (R) copiedParagraph.getContent().get(0);
+        Text copiedText = (Text) copies.get(text);
+        assertNotSame(text, copiedText);
+        assertSame(copiedText, XmlUtils.unwrap(copiedRun.getContent().get(0)));
+        assertSame(copy, copiedCell.getParent());
+        assertSame(copiedCell, copiedParagraph.getParent());
+        assertSame(copiedRun, copiedText.getParent());
+        assertNotSame(run.getRPr(), copiedRun.getRPr());
+    }
+
+    private <T> String marshal(T object, Class<T> type) {
+        return XmlUtils.marshaltoString(new JAXBElement<>(new QName("test"), type, object), true, false, Context.jcSML);
+    }
+}
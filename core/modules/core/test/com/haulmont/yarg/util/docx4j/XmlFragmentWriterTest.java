@@ -0,0 +1,62 @@
+/*
+ * Copyright 2013 Haulmont
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.haulmont.yarg.util.docx4j;
+
+import org.docx4j.XmlUtils;
+import org.docx4j.jaxb.Context;
+import org.docx4j.jaxb.NamespacePrefixMapperUtils;
+import org.docx4j.wml.P;
+import org.docx4j.wml.R;
+import org.docx4j.wml.Text;
+import org.junit.Test;
+
+import javax.xml.bind.Marshaller;
+import java.io.StringWriter;
+
+import static org.junit.Assert.*;
+
+public class XmlFragmentWriterTest {
+    private static final String WML_NAMESPACE = "http://schemas.openxmlformats.org/wordprocessingml/2006/main";
+
+    @Test
+    public void testWrittenValuesArePreserved() throws Exception {
+        String value = "first\r\nsecond\r\tthird & <fourth> \"fifth\"";
+        Text text = new Text();
+        text.setValue(value);
+        text.setSpace("preserve");
+        R run = new R();
+        run.setRsidR(value);
+        run.getContent().add(text);
+        P paragraph = new P();
+        paragraph.getContent().add(run);
+
+        StringWriter writer = new StringWriter();
+        Marshaller marshaller = Context.jc.createMarshaller();
+        marshaller.setProperty(Marshaller.JAXB_FRAGMENT, true);
+        NamespacePrefixMapperUtils.setProperty(marshaller, NamespacePrefixMapperUtils.getPrefixMapper());
+        marshaller.marshal(paragraph, new XmlFragmentWriter(writer));
+
+        String xml = writer.toString();
+        assertFalse(xml.contains("xmlns"));
+        assertFalse(xml.contains("\r"));
+
+        P result = (P) XmlUtils.unmarshalString(xml.replaceFirst("^<w:p", "<w:p xmlns:w=\"" + WML_NAMESPACE + "\""));
+        R resultRun = (R) result.getContent().get(0);
+        assertEquals(value, resultRun.getRsidR());
+        assertEquals(value, ((Text) XmlUtils.unwrap(resultRun.getContent().get(0))).getValue());
+    }
+}
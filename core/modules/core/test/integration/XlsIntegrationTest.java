@@ -18,6 +18,8 @@ package integration;
 import com.haulmont.yarg.formatters.ReportFormatter;
 import com.haulmont.yarg.formatters.factory.DefaultFormatterFactory;
 import com.haulmont.yarg.formatters.factory.FormatterFactoryInput;
+import com.haulmont.yarg.formatters.impl.TemplateCache;
+import com.haulmont.yarg.formatters.impl.XLSFormatter;
 import com.haulmont.yarg.structure.ReportOutputType;
 import com.haulmont.yarg.structure.BandData;
 import com.haulmont.yarg.structure.BandOrientation;
@@ -29,6 +31,7 @@ import org.apache.poi.hssf.usermodel.HSSFCell;
 import org.apache.poi.hssf.usermodel.HSSFRow;
 import org.apache.poi.hssf.usermodel.HSSFSheet;
 import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.usermodel.CellType;
 import org.junit.Test;
 
 import java.io.File;
@@ -77,6 +80,49 @@ public class XlsIntegrationTest {
         compareFiles("./modules/core/test/integration/etalon-with-formulas.xls", "./result/integration/result-with-formulas.xls");
     }
 
+    @Test
+    public void testFormulasWithTemplateCache() throws Exception {
+        DefaultFormatterFactory formatterFactory = new DefaultFormatterFactory();
+        TemplateCache<XLSFormatter.ParsedTemplate> templateCache = new TemplateCache<>();
+        formatterFactory.setXlsTemplateCache(templateCache);
+
+        for (int i = 0; i < 2; i++) {
+            FileOutputStream outputStream = new FileOutputStream("./result/integration/result-with-formulas-cached.xls");
+
+            ReportFormatter formatter = formatterFactory.createFormatter(new FormatterFactoryInput("xls", createRootBandForFormulas(),
+                    new ReportTemplateImpl("", "smoketest/test.xls", "./modules/core/test/integration/test-with-formulas.xls", ReportOutputType.xls), outputStream));
+
+            formatter.renderDocument();
+
+            IOUtils.closeQuietly(outputStream);
+
+            compareFiles("./modules/core/test/integration/etalon-with-formulas.xls", "./result/integration/result-with-formulas-cached.xls");
+        }
+        Assert.assertEquals(1, templateCache.size());
+    }
+
+    @Test
+    public void testRepeatedFormulas() throws Exception {
+        BandData root = new BandData("Root", null, BandOrientation.HORIZONTAL);
+        root.setData(new HashMap<>());
+        for (int i = 1; i <= 3; i++) {
+            root.addChild(band(i, i + 3, BandOrientation.HORIZONTAL, root, "Band1"));
+        }
+        root.addChild(new BandData("Footer", root, BandOrientation.HORIZONTAL));
+        root.setFirstLevelBandDefinitionNames(new HashSet<>(Collections.singleton("Band1")));
+
+        FileOutputStream outputStream = new FileOutputStream("./result/integration/result-with-repeated-formulas.xls");
+
+        ReportFormatter formatter = new DefaultFormatterFactory().createFormatter(new FormatterFactoryInput("xls", root,
+                new ReportTemplateImpl("", "smoketest/test.xls", "./modules/core/test/integration/test-with-repeated-formulas.xls", ReportOutputType.xls), outputStream));
+
+        formatter.renderDocument();
+
+        IOUtils.closeQuietly(outputStream);
+
+        compareFiles("./modules/core/test/integration/etalon-with-repeated-formulas.xls", "./result/integration/result-with-repeated-formulas.xls");
+    }
+
     @Test
     public void testAggregations() throws Exception {
         BandData root = createRootBandForAggregation();
@@ -133,6 +179,9 @@ public class XlsIntegrationTest {
 
                 if (resultCell != null && etalonCell != null) {
                     Assert.assertEquals(String.format("fail on cell [%d,%d]", row, cell), etalonCell.getNumericCellValue(), resultCell.getNumericCellValue());
+                    if (etalonCell.getCellType() == CellType.FORMULA) {
+                        Assert.assertEquals(String.format("fail on cell formula [%d,%d]", row, cell), etalonCell.getCellFormula(), resultCell.getCellFormula());
+                    }
                 } else if ((resultCell == null && etalonCell != null) || (resultCell != null)) {
                     Assert.fail(String.format("fail on cell [%d,%d]", row, cell));
                 }
@@ -19,7 +19,11 @@ package integration;
 import com.haulmont.yarg.formatters.ReportFormatter;
 import com.haulmont.yarg.formatters.factory.DefaultFormatterFactory;
 import com.haulmont.yarg.formatters.factory.FormatterFactoryInput;
+import com.haulmont.yarg.formatters.impl.TemplateCache;
+import com.haulmont.yarg.formatters.impl.XlsxFormatter;
 import com.haulmont.yarg.formatters.impl.xlsx.Document;
+import com.haulmont.yarg.formatters.impl.xlsx.ParsedTemplate;
+import com.haulmont.yarg.formatters.impl.xlsx.StreamingSheetData;
 import com.haulmont.yarg.loaders.factory.DefaultLoaderFactory;
 import com.haulmont.yarg.loaders.impl.GroovyDataLoader;
 import com.haulmont.yarg.loaders.impl.JsonDataLoader;
@@ -51,8 +55,12 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.math.BigDecimal;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
 import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
@@ -419,6 +427,200 @@ public class XlsxIntegrationTest {
 
     @Test
     public void testXlsxFormulas() throws Exception {
+        BandData root = createFormulasBand();
+
+        FileOutputStream outputStream = new FileOutputStream("./result/integration/result-formulas.xlsx");
+        ReportFormatter formatter = new DefaultFormatterFactory().createFormatter(new FormatterFactoryInput("xlsx", root,
+                new ReportTemplateImpl("", "./modules/core/test/integration/test-formulas.xlsx", "./modules/core/test/integration/test-formulas.xlsx", ReportOutputType.xlsx), outputStream));
+        formatter.renderDocument();
+
+        IOUtils.closeQuietly(outputStream);
+        compareFiles("./result/integration/result-formulas.xlsx", "./modules/core/test/integration/etalon-formulas.xlsx");
+    }
+
+    @Test
+    public void testXlsxFormulasWithTemplateCache() throws Exception {
+        DefaultFormatterFactory formatterFactory = new DefaultFormatterFactory();
+        TemplateCache<ParsedTemplate> templateCache = new TemplateCache<>();
+        formatterFactory.setXlsxTemplateCache(templateCache);
+
+        for (int i = 0; i < 3; i++) {
+            String resultPath = "./result/integration/result-formulas-cached-" + i + ".xlsx";
+            FileOutputStream outputStream = new FileOutputStream(resultPath);
+            ReportFormatter formatter = formatterFactory.createFormatter(new FormatterFactoryInput("xlsx", createFormulasBand(),
+                    new ReportTemplateImpl("", "./modules/core/test/integration/test-formulas.xlsx", "./modules/core/test/integration/test-formulas.xlsx", ReportOutputType.xlsx), outputStream));
+            formatter.renderDocument();
+
+            IOUtils.closeQuietly(outputStream);
+            compareFiles(resultPath, "./modules/core/test/integration/etalon-formulas.xlsx");
+        }
+        Assert.assertEquals(1, templateCache.size());
+    }
+
+    @Test
+    public void testXlsxFormulasWithStreaming() throws Exception {
+        BandData root = createFormulasBand();
+
+        FileOutputStream outputStream = new FileOutputStream("./result/integration/result-formulas-streaming.xlsx");
+        DefaultFormatterFactory formatterFactory = new DefaultFormatterFactory();
+        formatterFactory.setXlsxStreamingEnabled(true);
+        ReportFormatter formatter = formatterFactory.createFormatter(new FormatterFactoryInput("xlsx", root,
+                new ReportTemplateImpl("", "./modules/core/test/integration/test-formulas.xlsx", "./modules/core/test/integration/test-formulas.xlsx", ReportOutputType.xlsx), outputStream));
+        formatter.renderDocument();
+
+        IOUtils.closeQuietly(outputStream);
+        compareFiles("./result/integration/result-formulas-streaming.xlsx", "./modules/core/test/integration/etalon-formulas.xlsx");
+    }
+
+    @Test
+    public void testXlsxStreamingWritesRowsDuringRendering() throws Exception {
+        BandData root = createFormulasBand(20);
+
+        FileOutputStream outputStream = new FileOutputStream("./result/integration/result-many-formulas.xlsx");
+        ReportFormatter formatter = new DefaultFormatterFactory().createFormatter(new FormatterFactoryInput("xlsx", root,
+                new ReportTemplateImpl("", "./modules/core/test/integration/test-formulas.xlsx", "./modules/core/test/integration/test-formulas.xlsx", ReportOutputType.xlsx), outputStream));
+        formatter.renderDocument();
+        IOUtils.closeQuietly(outputStream);
+
+        outputStream = new FileOutputStream("./result/integration/result-many-formulas-streaming.xlsx");
+        RowsCountingXlsxFormatter streamingFormatter = new RowsCountingXlsxFormatter(new FormatterFactoryInput("xlsx", root,
+                new ReportTemplateImpl("", "./modules/core/test/integration/test-formulas.xlsx", "./modules/core/test/integration/test-formulas.xlsx", ReportOutputType.xlsx), outputStream));
+        streamingFormatter.setStreamingEnabled(true);
+        streamingFormatter.renderDocument();
+        IOUtils.closeQuietly(outputStream);
+
+        assertTrue("Rows are not written during rendering", streamingFormatter.rowsWrittenBeforeSave > 0);
+        compareFiles("./result/integration/result-many-formulas-streaming.xlsx", "./result/integration/result-many-formulas.xlsx");
+    }
+
+    @Test
+    public void testXlsxParallelSheets() throws Exception {
+        BandData root = createPivotBand();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            renderPivot(root, "./result/integration/result-pivot-serial.xlsx", null);
+            renderPivot(root, "./result/integration/result-pivot-parallel.xlsx", executor);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        compareFiles("./result/integration/result-pivot-parallel.xlsx", "./result/integration/result-pivot-serial.xlsx");
+    }
+
+    @Test
+    public void testXlsxParallelSheetsWithFormatterSubclass() throws Exception {
+        BandData root = createPivotBand();
+        renderPivot(root, "./result/integration/result-pivot-serial-subclass.xlsx", null);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        FileOutputStream outputStream = new FileOutputStream("./result/integration/result-pivot-parallel-subclass.xlsx");
+        try {
+            CountingXlsxFormatter formatter = new CountingXlsxFormatter(new FormatterFactoryInput("xlsx", root,
+                    new ReportTemplateImpl("", "./modules/core/test/smoketest/pivot.xlsx", "./modules/core/test/smoketest/pivot.xlsx", ReportOutputType.xlsx), outputStream));
+            formatter.setSheetExecutor(executor);
+            CountingXlsxFormatter.WRITTEN_BANDS.set(0);
+            formatter.renderDocument();
+        } finally {
+            executor.shutdownNow();
+            IOUtils.closeQuietly(outputStream);
+        }
+
+        Assert.assertEquals(root.getChildrenList().size(), CountingXlsxFormatter.WRITTEN_BANDS.get());
+        compareFiles("./result/integration/result-pivot-parallel-subclass.xlsx", "./result/integration/result-pivot-serial-subclass.xlsx");
+    }
+
+    @Test
+    public void testXlsxToCsvDirectly() throws Exception {
+        BandData root = createPivotBand();
+
+        renderPivotToCsv(root, "./result/integration/result-pivot.csv", new DefaultFormatterFactory());
+
+        DefaultFormatterFactory formatterFactory = new DefaultFormatterFactory();
+        formatterFactory.setXlsxCsvDirectEnabled(true);
+        renderPivotToCsv(root, "./result/integration/result-pivot-direct.csv", formatterFactory);
+
+        assertTrue("Files are not equal", FileUtils.contentEquals(
+                new File("./result/integration/result-pivot.csv"), new File("./result/integration/result-pivot-direct.csv")));
+
+        formatterFactory.setXlsxCsvCharset(StandardCharsets.UTF_16);
+        formatterFactory.setXlsxCsvSeparator(',');
+        renderPivotToCsv(root, "./result/integration/result-pivot-direct-utf16.csv", formatterFactory);
+
+        List<String> lines = FileUtils.readLines(new File("./result/integration/result-pivot-direct-utf16.csv"), StandardCharsets.UTF_16);
+        Assert.assertEquals(FileUtils.readLines(new File("./result/integration/result-pivot.csv")).size(), lines.size());
+        assertTrue(lines.contains("\"Item #10\",\"10\",\"1000\""));
+    }
+
+    private void renderPivotToCsv(BandData root, String resultPath, DefaultFormatterFactory formatterFactory) throws Exception {
+        FileOutputStream outputStream = new FileOutputStream(resultPath);
+        ReportFormatter formatter = formatterFactory.createFormatter(new FormatterFactoryInput("xlsx", root,
+                new ReportTemplateImpl("", "./modules/core/test/smoketest/pivot.xlsx", "./modules/core/test/smoketest/pivot.xlsx", ReportOutputType.csv), outputStream));
+        formatter.renderDocument();
+
+        IOUtils.closeQuietly(outputStream);
+    }
+
+    private void renderPivot(BandData root, String resultPath, ExecutorService sheetExecutor) throws Exception {
+        FileOutputStream outputStream = new FileOutputStream(resultPath);
+        DefaultFormatterFactory formatterFactory = new DefaultFormatterFactory();
+        formatterFactory.setXlsxSheetExecutor(sheetExecutor);
+        ReportFormatter formatter = formatterFactory.createFormatter(new FormatterFactoryInput("xlsx", root,
+                new ReportTemplateImpl("", "./modules/core/test/smoketest/pivot.xlsx", "./modules/core/test/smoketest/pivot.xlsx", ReportOutputType.xlsx), outputStream));
+        formatter.renderDocument();
+
+        IOUtils.closeQuietly(outputStream);
+    }
+
+    private BandData createPivotBand() {
+        BandData root = new BandData("Root", null, BandOrientation.HORIZONTAL);
+        root.addChild(new BandData("Header", root, BandOrientation.HORIZONTAL));
+        for (int i = 1; i <= 10; i++) {
+            BandData band = new BandData("Data", root, BandOrientation.HORIZONTAL);
+            band.addData("number", "Item #" + i);
+            band.addData("count", i);
+            band.addData("price", i * 100);
+            root.addChild(band);
+        }
+
+        root.addChild(new BandData("Header2", root, BandOrientation.HORIZONTAL));
+        for (int i = 1; i <= 5; i++) {
+            BandData band = new BandData("Data2", root, BandOrientation.HORIZONTAL);
+            band.addData("number", "Item #" + i);
+            band.addData("count", i);
+            band.addData("price", i * 100);
+            root.addChild(band);
+        }
+        return root;
+    }
+
+    private BandData createFormulasBand(int headersCount) {
+        BandData root = new BandData("Root", null, BandOrientation.HORIZONTAL);
+        HashMap<String, Object> rootData = new HashMap<String, Object>();
+        root.setData(rootData);
+
+        BandData mainHeader = new BandData("MainHeader", root);
+        mainHeader.setData(rootData);
+        root.addChild(mainHeader);
+
+        for (int i = 0; i < headersCount; i++) {
+            BandData header = new BandData("Header", root, BandOrientation.HORIZONTAL);
+            header.setData(new HashMap<String, Object>());
+            header.addData("service", "Service " + i);
+            for (int j = 0; j < 3; j++) {
+                BandData details = new BandData("Details", header, BandOrientation.HORIZONTAL);
+                details.setData(new HashMap<String, Object>());
+                details.addData("client", "Client " + j);
+                details.addData("volume", 100 * i + j);
+                details.addData("price", 10 + j);
+                header.addChild(details);
+            }
+            header.addChild(new BandData("Total", header, BandOrientation.HORIZONTAL));
+            root.addChild(header);
+        }
+        return root;
+    }
+
+    private BandData createFormulasBand() {
         BandData root = new BandData("Root", null, BandOrientation.HORIZONTAL);
         HashMap<String, Object> rootData = new HashMap<String, Object>();
         root.setData(rootData);
@@ -465,14 +667,7 @@ public class XlsxIntegrationTest {
 
         root.addChild(header1);
         root.addChild(header2);
-
-        FileOutputStream outputStream = new FileOutputStream("./result/integration/result-formulas.xlsx");
-        ReportFormatter formatter = new DefaultFormatterFactory().createFormatter(new FormatterFactoryInput("xlsx", root,
-                new ReportTemplateImpl("", "./modules/core/test/integration/test-formulas.xlsx", "./modules/core/test/integration/test-formulas.xlsx", ReportOutputType.xlsx), outputStream));
-        formatter.renderDocument();
-
-        IOUtils.closeQuietly(outputStream);
-        compareFiles("./result/integration/result-formulas.xlsx", "./modules/core/test/integration/etalon-formulas.xlsx");
+        return root;
     }
 
     @Test
@@ -616,4 +811,36 @@ public class XlsxIntegrationTest {
             }
         }
     }
-}
\ No newline at end of file
+
+    public static class RowsCountingXlsxFormatter extends XlsxFormatter {
+        int rowsWrittenBeforeSave;
+
+        public RowsCountingXlsxFormatter(FormatterFactoryInput formatterFactoryInput) {
+            super(formatterFactoryInput);
+        }
+
+        @Override
+        protected void saveAndClose() {
+            for (StreamingSheetData sheetData : streamingSheets.values()) {
+                rowsWrittenBeforeSave += sheetData.getWrittenRowsCount();
+            }
+            super.saveAndClose();
+        }
+    }
+
+    public static class CountingXlsxFormatter extends XlsxFormatter {
+        static final AtomicInteger WRITTEN_BANDS = new AtomicInteger();
+
+        public CountingXlsxFormatter(FormatterFactoryInput formatterFactoryInput) {
+            super(formatterFactoryInput);
+        }
+
+        @Override
+        protected void writeBand(BandData band) {
+            if (BandData.ROOT_BAND_NAME.equals(band.getParentBand().getName())) {
+                WRITTEN_BANDS.incrementAndGet();
+            }
+            super.writeBand(band);
+        }
+    }
+}
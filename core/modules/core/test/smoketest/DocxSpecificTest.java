@@ -18,16 +18,33 @@ package smoketest;
 import com.haulmont.yarg.formatters.ReportFormatter;
 import com.haulmont.yarg.formatters.factory.DefaultFormatterFactory;
 import com.haulmont.yarg.formatters.factory.FormatterFactoryInput;
+import com.haulmont.yarg.formatters.factory.inline.DefaultInlinersProvider;
+import com.haulmont.yarg.formatters.impl.DocxFormatter;
+import com.haulmont.yarg.formatters.impl.TemplateCache;
+import com.haulmont.yarg.formatters.impl.docx.HtmlImportProcessorImpl;
+import com.haulmont.yarg.formatters.impl.docx.PdfExportContext;
 import com.haulmont.yarg.structure.BandData;
 import com.haulmont.yarg.structure.BandOrientation;
 import com.haulmont.yarg.structure.ReportOutputType;
 import com.haulmont.yarg.structure.impl.ReportFieldFormatImpl;
 import com.haulmont.yarg.structure.impl.ReportTemplateImpl;
+import junit.framework.Assert;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.docx4j.XmlUtils;
+import org.docx4j.openpackaging.exceptions.Docx4JException;
+import org.docx4j.openpackaging.packages.WordprocessingMLPackage;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.FileOutputStream;
-import java.util.HashMap;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 public class DocxSpecificTest extends AbstractFormatSpecificTest {
     @Test
@@ -55,6 +72,45 @@ public class DocxSpecificTest extends AbstractFormatSpecificTest {
         IOUtils.closeQuietly(outputStream);
     }
 
+    @Test
+    public void testTableInTableWithStreaming() throws Exception {
+        byte[] streamed = renderTableInTable(true);
+        byte[] inMemory = renderTableInTable(false);
+
+        String streamedXml = XmlUtils.marshaltoString(WordprocessingMLPackage.load(new ByteArrayInputStream(streamed))
+                .getMainDocumentPart().getJaxbElement());
+        String inMemoryXml = XmlUtils.marshaltoString(WordprocessingMLPackage.load(new ByteArrayInputStream(inMemory))
+                .getMainDocumentPart().getJaxbElement());
+        Assert.assertEquals(inMemoryXml, streamedXml);
+        Assert.assertTrue(streamedXml.contains("contact3"));
+
+        FileOutputStream outputStream = new FileOutputStream("./result/smoke/table-in-table-streaming.docx");
+        IOUtils.write(streamed, outputStream);
+        IOUtils.closeQuietly(outputStream);
+    }
+
+    private byte[] renderTableInTable(boolean streamingEnabled) throws Exception {
+        BandData root = new BandData("Root", null, BandOrientation.HORIZONTAL);
+        root.setData(new HashMap<>());
+        BandData customer = new BandData("Customer", root, BandOrientation.HORIZONTAL);
+        customer.setData(new ConstantMap("customer"));
+        root.addChild(customer);
+        for (int i = 1; i <= 3; i++) {
+            BandData contacts = new BandData("CustomerContacts", root, BandOrientation.HORIZONTAL);
+            contacts.setData(new ConstantMap("contact" + i));
+            root.addChild(contacts);
+        }
+
+        DefaultFormatterFactory formatterFactory = new DefaultFormatterFactory();
+        formatterFactory.setDocxStreamingEnabled(streamingEnabled);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ReportFormatter formatter = formatterFactory.createFormatter(new FormatterFactoryInput("docx", root,
+                new ReportTemplateImpl("", "./modules/core/test/smoketest/table-in-table.docx", "./modules/core/test/smoketest/table-in-table.docx",
+                        ReportOutputType.docx), outputStream));
+        formatter.renderDocument();
+        return outputStream.toByteArray();
+    }
+
     @Test
     public void testDocxTableWithSplittedBandAlias() throws Exception {
         BandData root = new BandData("Root", null, BandOrientation.HORIZONTAL);
@@ -74,6 +130,120 @@ public class DocxSpecificTest extends AbstractFormatSpecificTest {
         IOUtils.closeQuietly(outputStream);
     }
 
+    @Test
+    public void testDocxToPdfWithExportContext() throws Exception {
+        DefaultFormatterFactory formatterFactory = new DefaultFormatterFactory();
+        PdfExportContext pdfExportContext = new PdfExportContext();
+        formatterFactory.setDocxPdfExportContext(pdfExportContext);
+
+        for (int i = 0; i < 2; i++) {
+            BandData root = new BandData("Root", null, BandOrientation.HORIZONTAL);
+            root.setData(new HashMap<>());
+            BandData ride = new BandData("ride", root, BandOrientation.HORIZONTAL);
+            ride.setData(new RandomMap());
+            root.addChild(ride);
+
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            ReportFormatter formatter = formatterFactory.createFormatter(new FormatterFactoryInput("docx", root,
+                    new ReportTemplateImpl("", "./modules/core/test/smoketest/splitted-aliases-in-table.docx", "./modules/core/test/smoketest/splitted-aliases-in-table.docx",
+                            ReportOutputType.pdf), outputStream));
+            formatter.renderDocument();
+
+            Assert.assertTrue(new String(outputStream.toByteArray(), 0, 5, "US-ASCII").startsWith("%PDF"));
+            FileOutputStream fileOutputStream = new FileOutputStream("./result/smoke/splitted-aliases-in-table.pdf");
+            IOUtils.write(outputStream.toByteArray(), fileOutputStream);
+            IOUtils.closeQuietly(fileOutputStream);
+        }
+        Assert.assertEquals(1, pdfExportContext.size());
+    }
+
+    @Test
+    public void testRepeatedHtmlChunks() throws Exception {
+        Set<Thread> processingThreads = renderRepeatedHtmlChunks(null);
+        Assert.assertEquals(Collections.singleton(Thread.currentThread()), processingThreads);
+    }
+
+    @Test
+    public void testRepeatedHtmlChunksWithExecutor() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Set<Thread> processingThreads = renderRepeatedHtmlChunks(executor);
+            Assert.assertFalse(processingThreads.contains(Thread.currentThread()));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return threads which processed html
+     */
+    private Set<Thread> renderRepeatedHtmlChunks(ExecutorService htmlProcessingExecutor) throws Exception {
+        BandData root = createRootBand();
+        root.addReportFieldFormats(Collections.singletonList(new ReportFieldFormatImpl("Band1.col2", "${html}")));
+        BandData footer = root.getChildByName("Footer");
+        BandData footerChild = new BandData("FooterChild", footer);
+        footerChild.addData("nestedData", "NESTED_DATA");
+        footerChild.addData("nestedData.withPoint", "NESTED_DATA_WITH_POINT");
+        footer.addChild(footerChild);
+        BandData band1 = root.getChildByName("Band1");
+        for (int i = 0; i < 2; i++) {
+            BandData listBand = new BandData("Band1", root, BandOrientation.HORIZONTAL);
+            listBand.setData(new HashMap<>(band1.getData()));
+            listBand.addData("col2", "<html><body><ol><li>list item</li></ol></body></html>");
+            root.addChild(listBand);
+        }
+
+        Map<String, Integer> processedSources = new ConcurrentHashMap<>();
+        Set<Thread> processingThreads = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        Map<String, Integer> importedHtmls = new HashMap<>();
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        DocxFormatter formatter = new DocxFormatter(new FormatterFactoryInput("docx", root,
+                new ReportTemplateImpl("", "./modules/core/test/smoketest/test.docx", "./modules/core/test/smoketest/test.docx",
+                        ReportOutputType.docx), outputStream)) {
+            @Override
+            protected List<Object> importHtml(String html) throws Docx4JException {
+                importedHtmls.merge(html, 1, Integer::sum);
+                return super.importHtml(html);
+            }
+        };
+        formatter.setHtmlImportProcessor(new HtmlImportProcessorImpl() {
+            @Override
+            public String processHtml(String source) {
+                processedSources.merge(source, 1, Integer::sum);
+                processingThreads.add(Thread.currentThread());
+                return super.processHtml(source);
+            }
+        });
+        formatter.setContentInliners(new ArrayList<>(new DefaultInlinersProvider().getContentInliners()));
+        formatter.setHtmlProcessingExecutor(htmlProcessingExecutor);
+        formatter.renderDocument();
+
+        String documentXml = XmlUtils.marshaltoString(WordprocessingMLPackage.load(new ByteArrayInputStream(outputStream.toByteArray()))
+                .getMainDocumentPart().getJaxbElement());
+        int htmlCount = StringUtils.countMatches(documentXml, ">html text<");
+        int listCount = StringUtils.countMatches(documentXml, ">list item<");
+        Assert.assertTrue(htmlCount > 1);
+        Assert.assertTrue(listCount > 1);
+
+        //each distinct html is processed once
+        Assert.assertEquals(Collections.singleton(1), new HashSet<>(processedSources.values()));
+
+        //html without lists is converted once, each list is converted separately to get its own numbering
+        Assert.assertEquals(processedSources.size(), importedHtmls.size());
+        for (Map.Entry<String, Integer> entry : importedHtmls.entrySet()) {
+            int expectedImports = entry.getKey().contains("list item") ? listCount : 1;
+            Assert.assertEquals(expectedImports, entry.getValue().intValue());
+        }
+
+        Matcher numIds = Pattern.compile("<w:numId w:val=\"(\\d+)\"/>").matcher(documentXml);
+        Set<String> distinctNumIds = new HashSet<>();
+        while (numIds.find()) {
+            distinctNumIds.add(numIds.group(1));
+        }
+        Assert.assertTrue(distinctNumIds.size() >= listCount);
+        return processingThreads;
+    }
+
     @Test
     public void testControlTables1() throws Exception {
         BandData root = new BandData("Root", null, BandOrientation.HORIZONTAL);
@@ -233,6 +403,40 @@ public class DocxSpecificTest extends AbstractFormatSpecificTest {
         IOUtils.closeQuietly(outputStream);
     }
 
+    @Test
+    public void testDocxWithSplittedAliasAndTemplateCache() throws Exception {
+        DefaultFormatterFactory formatterFactory = new DefaultFormatterFactory();
+        TemplateCache<DocxFormatter.ParsedTemplate> templateCache = new TemplateCache<>();
+        formatterFactory.setDocxTemplateCache(templateCache);
+
+        String expectedXml = renderSplittedAliases(new DefaultFormatterFactory());
+        Assert.assertEquals(expectedXml, renderSplittedAliases(formatterFactory));
+        Assert.assertEquals(expectedXml, renderSplittedAliases(formatterFactory));
+        Assert.assertEquals(1, templateCache.size());
+    }
+
+    private String renderSplittedAliases(DefaultFormatterFactory formatterFactory) throws Exception {
+        BandData root = new BandData("Root", null, BandOrientation.HORIZONTAL);
+        root.setData(new HashMap<>());
+        BandData cover = new BandData("Cover", root, BandOrientation.HORIZONTAL);
+        cover.setData(new HashMap<>());
+        cover.addData("index", "123");
+        cover.addData("volume", "321");
+        cover.addData("name", "AAA");
+        BandData documents = new BandData("Documents", root, BandOrientation.HORIZONTAL);
+        documents.setData(new HashMap<>());
+        root.addChild(cover);
+        root.addChild(documents);
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ReportFormatter formatter = formatterFactory.createFormatter(new FormatterFactoryInput("docx", root,
+                new ReportTemplateImpl("", "./modules/core/test/smoketest/splitted-aliases.docx", "./modules/core/test/smoketest/splitted-aliases.docx",
+                        ReportOutputType.docx), outputStream));
+        formatter.renderDocument();
+        return XmlUtils.marshaltoString(WordprocessingMLPackage.load(new ByteArrayInputStream(outputStream.toByteArray()))
+                .getMainDocumentPart().getJaxbElement());
+    }
+
     @Test
     public void testDocxWithColontitulesAndHtmlPageBreak() throws Exception {
         BandData root = new BandData("Root", null, BandOrientation.HORIZONTAL);